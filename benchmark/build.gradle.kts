@@ -0,0 +1,54 @@
+plugins {
+    id("com.android.library")
+    id("org.jetbrains.kotlin.android")
+}
+
+// SDK自体のオーバーヘッドを計測するマイクロベンチマーク
+// ./gradlew :benchmark:testReleaseUnitTest で実行し、build/benchmark-results/*.json に結果を出力する
+android {
+    namespace = "io.karte.android.benchmark"
+    compileSdk = libs.versions.compileSdk.get().toInt()
+
+    defaultConfig {
+        minSdk = libs.versions.minSdk.get().toInt()
+        targetSdk = libs.versions.targetSdk.get().toInt()
+    }
+
+    compileOptions {
+        sourceCompatibility = JavaVersion.VERSION_1_8
+        targetCompatibility = JavaVersion.VERSION_1_8
+    }
+
+    kotlinOptions {
+        jvmTarget = "1.8"
+    }
+
+    testOptions {
+        unitTests.apply {
+            isIncludeAndroidResources = true
+        }
+    }
+
+    tasks.withType<Test> {
+        systemProperty("robolectric.sqliteMode", "NATIVE")
+        systemProperty(
+            "karte.benchmark.outputDir",
+            layout.buildDirectory.dir("benchmark-results").get().asFile.path
+        )
+        // 計測結果は実行ごとに異なるため、キャッシュしない
+        outputs.upToDateWhen { false }
+    }
+
+    lint {
+        abortOnError = false
+    }
+}
+
+dependencies {
+    testImplementation(project(":core"))
+    testImplementation(project(":test_lib"))
+    testImplementation(libs.junit)
+    testImplementation(libs.androidx.test.core)
+    testImplementation(libs.robolectric)
+    testImplementation(libs.mockwebserver)
+}
@@ -0,0 +1,156 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.benchmark
+
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.rules.TestRule
+import org.junit.runner.Description
+import org.junit.runners.model.Statement
+import java.io.File
+import java.lang.reflect.Method
+
+private const val OUTPUT_DIR_PROPERTY = "karte.benchmark.outputDir"
+
+/**
+ * 計測を行うJUnitのルール.
+ *
+ * [measure]でウォームアップの後に指定回数実行し、1回あたりの時間と割り当てバイト数を記録する.
+ * 結果はテストクラスごとに`build/benchmark-results/<クラス名>.json`へ出力する.
+ * 出力形式はAndroidX Benchmarkの`benchmarkData.json`に合わせている.
+ */
+class BenchmarkRule : TestRule {
+    private lateinit var description: Description
+
+    @Volatile
+    private var sink: Any? = null
+
+    override fun apply(base: Statement, description: Description): Statement {
+        this.description = description
+        return object : Statement() {
+            override fun evaluate() {
+                base.evaluate()
+                write(description.className)
+            }
+        }
+    }
+
+    /**
+     * [block]の実行時間を計測する.
+     *
+     * @param[warmup] 計測前に実行する回数
+     * @param[iterations] 計測する回数
+     * @param[setup] 毎回の[block]の前に実行する処理. 計測には含まない
+     * @param[block] 計測する処理. 戻り値はJITによる除去を防ぐために保持する
+     */
+    fun <T> measure(
+        warmup: Int = 100,
+        iterations: Int = 1000,
+        setup: () -> T,
+        block: (T) -> Any?
+    ) {
+        repeat(warmup) { sink = block(setup()) }
+
+        val times = LongArray(iterations)
+        val allocations = LongArray(iterations)
+        repeat(iterations) {
+            val input = setup()
+            val allocatedAt = allocatedBytes()
+            val startedAt = System.nanoTime()
+            sink = block(input)
+            times[it] = System.nanoTime() - startedAt
+            allocations[it] = allocatedBytes() - allocatedAt
+        }
+        record(description.methodName, times, allocations.takeIf { allocationCounter != null })
+    }
+
+    /** [block]の実行時間を計測する. */
+    fun measure(warmup: Int = 100, iterations: Int = 1000, block: () -> Any?) =
+        measure(warmup, iterations, {}) { block() }
+
+    private fun record(name: String, times: LongArray, allocations: LongArray?) {
+        times.sort()
+        val metrics = JSONObject()
+            .put(
+                "timeNs",
+                JSONObject()
+                    .put("minimum", times.first())
+                    .put("maximum", times.last())
+                    .put("median", times[times.size / 2])
+                    .put("p90", times[times.size * 9 / 10])
+                    .put("mean", times.average())
+            )
+        if (allocations != null) {
+            allocations.sort()
+            metrics.put(
+                "allocationBytes",
+                JSONObject()
+                    .put("median", allocations[allocations.size / 2])
+                    .put("mean", allocations.average())
+            )
+        }
+        val result = JSONObject()
+            .put("name", name)
+            .put("className", description.className)
+            .put("totalRunTimeNs", times.sum())
+            .put("repeatIterations", times.size)
+            .put("metrics", metrics)
+        synchronized(results) {
+            results.getOrPut(description.className) { mutableListOf() }.add(result)
+        }
+    }
+
+    private fun write(className: String) {
+        val dir = System.getProperty(OUTPUT_DIR_PROPERTY) ?: return
+        val benchmarks = synchronized(results) { results[className]?.toList() } ?: return
+        val json = JSONObject()
+            .put(
+                "context",
+                JSONObject()
+                    .put("java.vm.name", System.getProperty("java.vm.name"))
+                    .put("java.version", System.getProperty("java.version"))
+                    .put("os.arch", System.getProperty("os.arch"))
+                    .put("availableProcessors", Runtime.getRuntime().availableProcessors())
+            )
+            .put("benchmarks", JSONArray(benchmarks))
+        File(dir).apply { mkdirs() }
+            .resolve("${className.substringAfterLast('.')}.json")
+            .writeText(json.toString(2))
+    }
+
+    companion object {
+        private val results = mutableMapOf<String, MutableList<JSONObject>>()
+
+        /**
+         * HotSpotの`ThreadMXBean.getThreadAllocatedBytes`.
+         * android.jarに含まれないため、リフレクションで取得する.
+         */
+        private val allocationCounter: Pair<Any, Method>? = runCatching {
+            val bean = Class.forName("java.lang.management.ManagementFactory")
+                .getMethod("getThreadMXBean")
+                .invoke(null)
+            val method = Class.forName("com.sun.management.ThreadMXBean")
+                .getMethod("getThreadAllocatedBytes", Long::class.javaPrimitiveType)
+            bean to method
+        }.getOrNull()
+
+        /** 現在のスレッドが割り当てたバイト数. 取得できない場合は0を返す. */
+        private fun allocatedBytes(): Long {
+            val (bean, method) = allocationCounter ?: return 0
+            return method.invoke(bean, Thread.currentThread().id) as Long
+        }
+    }
+}
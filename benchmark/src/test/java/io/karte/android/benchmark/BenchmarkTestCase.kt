@@ -0,0 +1,35 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.benchmark
+
+import io.karte.android.core.logger.LogLevel
+import io.karte.android.core.logger.Logger
+import io.karte.android.test_lib.RobolectricTestCase
+import org.junit.Before
+import org.junit.Rule
+import org.robolectric.shadows.ShadowLog
+
+abstract class BenchmarkTestCase : RobolectricTestCase() {
+    @get:Rule
+    val benchmark = BenchmarkRule()
+
+    @Before
+    fun setupBenchmark() {
+        // リリースビルドと同じ条件で計測するため、ログの出力を抑制する
+        ShadowLog.stream = null
+        Logger.level = LogLevel.WARN
+    }
+}
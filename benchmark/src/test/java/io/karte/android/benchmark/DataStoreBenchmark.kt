@@ -0,0 +1,139 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.benchmark
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import io.karte.android.test_lib.InternalUtils
+import io.karte.android.tracking.CustomEventName
+import io.karte.android.tracking.Event
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+private const val EVENTS_PER_ITERATION = 10
+private const val EVENTS_TABLE = "events"
+private const val LEGACY_DB = "krt_bench_legacy.db"
+
+/**
+ * DataStoreによるイベントの保存と削除の計測.
+ *
+ * `insertDelete*`は1件の保存と削除を1回として計測し、以下を比較する.
+ * - ContentValues: WALを使わず、ContentValuesを都度生成して`insert`/`delete`する従来の方法
+ * - ContentValuesWal: 従来の方法でWALのみ有効にしたもの
+ * - DataStore: WALとコンパイル済みのステートメントを使う現在の方法
+ */
+class DataStoreBenchmark : BenchmarkTestCase() {
+    private fun event() = Event(CustomEventName("buy"), mapOf("item_name" to "t-shirt", "price" to 100))
+
+    @Before
+    fun init() {
+        InternalUtils.setupEventStore(application)
+        // 比較用のテーブルを同じスキーマで作るため、DataStoreのDBを作成しておく
+        InternalUtils.readEvents()
+    }
+
+    @After
+    fun tearDown() {
+        InternalUtils.teardownEventStore()
+        application.deleteDatabase(LEGACY_DB)
+    }
+
+    /** DataStoreが作成したeventsテーブルと同じスキーマのテーブルを持つDBを開く. */
+    private fun openLegacyDatabase(isWal: Boolean): SQLiteDatabase {
+        val schema = SQLiteDatabase.openDatabase(
+            application.getDatabasePath("krt_cache.db").path,
+            null,
+            SQLiteDatabase.OPEN_READONLY
+        ).use { db ->
+            db.rawQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?", arrayOf(EVENTS_TABLE))
+                .use { cursor -> cursor.moveToFirst(); cursor.getString(0) }
+        }
+        application.deleteDatabase(LEGACY_DB)
+        return application.openOrCreateDatabase(LEGACY_DB, Context.MODE_PRIVATE, null).apply {
+            if (isWal) enableWriteAheadLogging() else disableWriteAheadLogging()
+            execSQL(schema)
+        }
+    }
+
+    /** `_id`を除くカラム名と、TEXT型かどうか. */
+    private fun columnsOf(db: SQLiteDatabase): List<Pair<String, Boolean>> =
+        db.rawQuery("PRAGMA table_info($EVENTS_TABLE)", null).use { cursor ->
+            val columns = mutableListOf<Pair<String, Boolean>>()
+            while (cursor.moveToNext()) {
+                val name = cursor.getString(cursor.getColumnIndexOrThrow("name"))
+                if (name == "_id") continue
+                columns.add(name to (cursor.getString(cursor.getColumnIndexOrThrow("type")) == "TEXT"))
+            }
+            columns
+        }
+
+    private fun measureContentValues(isWal: Boolean) {
+        val db = openLegacyDatabase(isWal)
+        val columns = columnsOf(db)
+        val event = JSONObject()
+            .put("event_name", "buy")
+            .put("values", JSONObject().put("item_name", "t-shirt").put("price", 100))
+        try {
+            // DataStoreと同様に、イベントを文字列にしてから1行分のContentValuesを都度生成する
+            benchmark.measure {
+                val serialized = event.toString()
+                val values = ContentValues()
+                columns.forEach { (column, isText) ->
+                    when {
+                        column == "event" -> values.put(column, serialized)
+                        isText -> values.put(column, column)
+                        else -> values.put(column, 0L)
+                    }
+                }
+                val id = db.insert(EVENTS_TABLE, null, values)
+                db.delete(EVENTS_TABLE, "_id = ?", arrayOf(id.toString()))
+            }
+        } finally {
+            db.close()
+        }
+    }
+
+    @Test
+    fun insertDeleteWithContentValues() = measureContentValues(false)
+
+    @Test
+    fun insertDeleteWithContentValuesWal() = measureContentValues(true)
+
+    @Test
+    fun insertDeleteWithDataStore() = benchmark.measure(setup = { event() }) {
+        InternalUtils.putAndDeleteEvent("visitor_id", "original_pv_id", "pv_id", it)
+    }
+
+    @Test
+    fun persistEventRecord() = benchmark.measure(setup = { event() }) {
+        InternalUtils.putEvent("visitor_id", "original_pv_id", "pv_id", it)
+    }
+
+    @Test
+    fun persistReadDeleteEventRecords() = benchmark.measure(
+        warmup = 20,
+        iterations = 200,
+        setup = { List(EVENTS_PER_ITERATION) { event() } }
+    ) { events ->
+        val ids = events.map { InternalUtils.putEvent("visitor_id", "original_pv_id", "pv_id", it) }
+        val read = InternalUtils.readEvents()
+        InternalUtils.deleteEvents(ids)
+        read
+    }
+}
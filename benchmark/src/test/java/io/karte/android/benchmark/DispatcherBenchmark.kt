@@ -0,0 +1,60 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.benchmark
+
+import io.karte.android.test_lib.InternalUtils
+import io.karte.android.test_lib.TrackerRequestDispatcher
+import io.karte.android.test_lib.proceedBufferedCall
+import io.karte.android.test_lib.setupKarteApp
+import io.karte.android.test_lib.tearDownKarteApp
+import io.karte.android.tracking.Tracker
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+
+private const val EVENTS_PER_ITERATION = 10
+
+class DispatcherBenchmark : BenchmarkTestCase() {
+    private lateinit var server: MockWebServer
+
+    @Before
+    fun init() {
+        server = MockWebServer()
+        server.dispatcher = TrackerRequestDispatcher()
+        server.start()
+        setupKarteApp(server)
+        proceedBufferedCall()
+    }
+
+    @After
+    fun tearDown() {
+        tearDownKarteApp()
+        server.shutdown()
+    }
+
+    /** trackからenqueue, dequeue, 送信, キューからの削除までの1サイクル. */
+    @Test
+    fun trackEnqueueDequeueCycle() {
+        benchmark.measure(warmup = 10, iterations = 100) {
+            repeat(EVENTS_PER_ITERATION) { Tracker.track("buy", mapOf("index" to it)) }
+            proceedBufferedCall()
+        }
+        // 全てのイベントが送信され、キューが空になっていること
+        Assert.assertTrue(InternalUtils.readEvents().isEmpty())
+    }
+}
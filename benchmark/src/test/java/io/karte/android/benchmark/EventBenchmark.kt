@@ -0,0 +1,51 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.benchmark
+
+import io.karte.android.test_lib.InternalUtils
+import io.karte.android.tracking.CustomEventName
+import io.karte.android.tracking.Event
+import io.karte.android.utilities.format
+import org.json.JSONObject
+import org.junit.Test
+import java.util.Date
+
+class EventBenchmark : BenchmarkTestCase() {
+    private val values = mapOf(
+        "item_name" to "t-shirt",
+        "price" to 100,
+        "date" to Date(1600000000000),
+        "tags" to listOf("sale", "summer"),
+        "detail" to mapOf("color" to "blue", "size" to "M")
+    )
+
+    @Test
+    fun eventConstruction() = benchmark.measure {
+        Event(CustomEventName("buy"), values)
+    }
+
+    @Test
+    fun jsonObjectFormat() {
+        val json = JSONObject(values)
+        benchmark.measure { json.format() }
+    }
+
+    @Test
+    fun eventValidation() {
+        val event = Event(CustomEventName("buy"), values)
+        benchmark.measure { InternalUtils.invalidMessages(event) }
+    }
+}
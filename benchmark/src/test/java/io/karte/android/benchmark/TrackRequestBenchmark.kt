@@ -0,0 +1,55 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.benchmark
+
+import io.karte.android.test_lib.InternalUtils
+import io.karte.android.tracking.CustomEventName
+import io.karte.android.tracking.Event
+import io.karte.android.tracking.client.TrackRequest
+import org.json.JSONObject
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.util.zip.GZIPOutputStream
+
+class TrackRequestBenchmark : BenchmarkTestCase() {
+    private val request by lazy {
+        TrackRequest(
+            "https://example.com/v0/native/track",
+            "visitor_id",
+            "original_pv_id",
+            "pv_id",
+            List(10) { Event(CustomEventName("buy"), mapOf("item_name" to "t-shirt", "index" to it)) },
+            JSONObject().put("version_name", "1.0.0").put("system_info", JSONObject().put("os", "android"))
+        )
+    }
+
+    @Test
+    fun trackRequestJson() = benchmark.measure {
+        request.json.toString()
+    }
+
+    @Test
+    fun trackRequestJsonGzip() = benchmark.measure {
+        InternalUtils.gzip(request.json.toString())
+    }
+
+    @Test
+    fun trackRequestStreamingGzip() = benchmark.measure {
+        val stream = ByteArrayOutputStream()
+        GZIPOutputStream(stream).use { InternalUtils.writeTrackBody(request, it) }
+        stream
+    }
+}
@@ -22,6 +22,7 @@ apiValidation {
     ignoredProjects.add("test_lib")
     ignoredProjects.add("sample_kotlin")
     ignoredProjects.add("sample_java")
+    ignoredProjects.add("benchmark")
 }
 
 // Configure Java toolchain for all Android projects
@@ -33,7 +34,9 @@ subprojects {
     }
 }
 
-configure(subprojects.filter { !it.name.startsWith("sample_") && !it.name.startsWith("test") }) {
+configure(
+    subprojects.filter { !it.name.startsWith("sample_") && !it.name.startsWith("test") && it.name != "benchmark" }
+) {
     println("configure libraries: ${project.name}")
     apply(from = "../buildscripts/projectDokka.gradle")
     apply(from = "../buildscripts/projectJacoco.gradle")
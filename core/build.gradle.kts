@@ -71,6 +71,9 @@ dependencies {
     // 18.1.0 is the last version supporting API Level 21 (18.2.0+ requires API 26+)
     compileOnly(libs.gms.ads.identifier)
 
+    // 利用側がOkHttpを導入している場合のみHttpEngineType.OKHTTPで使用する
+    compileOnly(libs.okhttp)
+
     testImplementation(libs.junit)
     testImplementation(libs.androidx.test.core)
     testImplementation(libs.truth)
@@ -78,6 +81,7 @@ dependencies {
     testRuntimeOnly(libs.byte.buddy)
     testImplementation(libs.robolectric)
     testImplementation(libs.mockwebserver)
+    testImplementation(libs.okhttp)
     testImplementation(libs.gms.ads.identifier)
     testImplementation(project(":test_lib"))
 }
@@ -22,3 +22,5 @@
 
 -dontwarn com.google.android.gms.**
 -dontwarn androidx.ads.identifier.**
+-dontwarn okhttp3.**
+-dontwarn okio.**
@@ -222,6 +222,7 @@ class KarteApp private constructor() : ActivityLifecycleCallback() {
         Logger.v(LOG_TAG, "onActivityStopped $activity")
         if (--activityCount == 0) {
             self.tracker?.track(Event(AutoEventName.NativeAppBackground, values = null))
+            self.tracker?.onBackground()
             Logger.flush()
         }
     }
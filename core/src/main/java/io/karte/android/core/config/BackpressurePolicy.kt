@@ -0,0 +1,35 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.core.config
+
+/**
+ * イベントの受付キューが満杯の場合の振る舞いを表す列挙型です。
+ */
+enum class BackpressurePolicy {
+    /** 最も古いイベントを破棄して新しいイベントを受け付ける */
+    DROP_OLDEST,
+
+    /** 新しいイベントがリトライ不可能な場合はそのイベントを破棄し、それ以外の場合は最も古いイベントを破棄する */
+    DROP_NON_RETRYABLE,
+
+    /**
+     * 空きができるまで呼び出し元のスレッドを待機させる
+     *
+     * 待機は一定時間で打ち切り、その場合は最も古いイベントを破棄します。
+     * SDKのスレッドから呼び出された場合は待機せずに最も古いイベントを破棄します。
+     */
+    BLOCK
+}
@@ -16,6 +16,11 @@
 package io.karte.android.core.config
 
 import io.karte.android.core.library.LibraryConfig
+import io.karte.android.tracking.queue.DEFAULT_DEQUEUE_PAGE_SIZE
+import io.karte.android.tracking.queue.DEFAULT_INGESTION_CAPACITY
+import io.karte.android.tracking.queue.DEFAULT_MAX_EVENTS_PER_REQUEST
+import io.karte.android.tracking.queue.DEFAULT_MAX_IN_FLIGHT_EVENTS
+import io.karte.android.tracking.queue.DEFAULT_MAX_REQUEST_BYTES
 
 /**
  * SDKの設定を保持するクラスです。
@@ -26,10 +31,69 @@ import io.karte.android.core.library.LibraryConfig
  * @property[operationMode] 動作モードの取得・設定を行います。
  * デフォルトは [OperationMode.DEFAULT] です。
  *
+ * @property[maxEventsPerRequest] 1リクエストで送信するイベント数の上限の取得・設定を行います。
+ * 通信状況に応じてこの値までイベント数を増やします。デフォルトは `50` です。
+ *
+ * @property[maxRequestBytes] 1リクエストで送信するイベントの合計サイズ(圧縮前の目安)の上限の取得・設定を行います。
+ * デフォルトは `524288` (512KB) です。
+ *
+ * @property[httpEngine] HTTPリクエストの送信に利用する実装の取得・設定を行います。
+ * デフォルトは [HttpEngineType.DEFAULT] です。
+ *
+ * @property[asyncTracking] イベントの加工とシリアライズを非同期に行うかどうかの取得・設定を行います。
+ * 有効な場合、`TrackerDelegate.intercept`と各モジュールによるイベントの加工はSDKのバックグラウンドスレッドで呼び出されます。
+ * デフォルトは `false` です。
+ *
+ * @property[ingestionCapacity] 送信待ちとして保存する前のイベントを受け付けるキューの容量の取得・設定を行います。
+ * 2のべき乗に切り上げて利用します。デフォルトは `1024` です。
+ *
+ * @property[backpressurePolicy] 受け付けるキューが満杯の場合の振る舞いの取得・設定を行います。
+ * デフォルトは [BackpressurePolicy.DROP_OLDEST] です。
+ *
+ * @property[dequeuePageSize] 送信待ちのイベントを一度に読み込む件数の取得・設定を行います。
+ * `1` 未満の場合は `1` として扱います。
+ * デフォルトは `100` です。
+ *
+ * @property[maxInFlightEvents] 同時に送信中とするイベント数の上限の取得・設定を行います。
+ * `1` 未満の場合は `1` として扱います。
+ * デフォルトは `200` です。
+ *
+ * @property[backgroundFlush] アプリがバックグラウンドに移行した際に、送信待ちのイベントを送信するジョブを予約するかどうかの取得・設定を行います。
+ * ジョブは`JobScheduler`によりネットワークに接続されている時に実行され、プロセスが終了していても送信されます。
+ * デフォルトは `false` です。
+ *
+ * @property[coalesceWindowMs] 保存前のイベントをまとめる期間(ms)の取得・設定を行います。
+ * 有効な場合、期間内に発生した`attribute`イベントを一つにまとめ、ビジュアルトラッキングの自動計測イベントの重複や
+ * `native_app_background`の直後の`native_app_foreground`を破棄します。
+ * 破棄したイベントは送信されないため、[io.karte.android.tracking.TrackCompletion]には `false` が通知されます。
+ * `0` の場合はまとめません。デフォルトは `0` です。
+ *
+ * @property[maxConcurrentRequests] 同時に送信するリクエスト数の上限の取得・設定を行います。
+ * `2` 以上の場合、ビジターやページビューが異なるイベントを別のスレッドで並列に送信します。
+ * 同じページビューのイベントは、優先度や再送かどうかに関わらず順に送信します。
+ * 送信結果の反映は常に1件ずつ行います。
+ * デフォルトは `1` です。
+ *
+ * @property[compactEncoding] イベントをMessagePack形式で送信するかどうかの取得・設定を行います。
+ * `Content-Type` に `application/msgpack` を指定して送信し、サーバーが `415` を返した場合は以降JSON形式で送信します。
+ * デフォルトは `false` です。
+ *
  * **実験的なオプションであるため、通常のSDK利用においてこちらのプロパティを変更する必要はありません。**
  */
 class ExperimentalConfig private constructor(
     val operationMode: OperationMode,
+    val maxEventsPerRequest: Int,
+    val maxRequestBytes: Int,
+    val httpEngine: HttpEngineType,
+    val asyncTracking: Boolean,
+    val ingestionCapacity: Int,
+    val backpressurePolicy: BackpressurePolicy,
+    val dequeuePageSize: Int,
+    val maxInFlightEvents: Int,
+    val backgroundFlush: Boolean,
+    val coalesceWindowMs: Long,
+    val maxConcurrentRequests: Int,
+    val compactEncoding: Boolean,
     appKey: String,
     apiKey: String,
     baseUrl: String,
@@ -59,9 +123,96 @@ class ExperimentalConfig private constructor(
         /**[ExperimentalConfig.operationMode]を変更します。*/
         fun operationMode(operationMode: OperationMode): Builder = apply { this.operationMode = operationMode }
 
+        /**[ExperimentalConfig.maxEventsPerRequest]を変更します。*/
+        var maxEventsPerRequest: Int = DEFAULT_MAX_EVENTS_PER_REQUEST @JvmSynthetic set
+
+        /**[ExperimentalConfig.maxEventsPerRequest]を変更します。*/
+        fun maxEventsPerRequest(maxEventsPerRequest: Int): Builder =
+            apply { this.maxEventsPerRequest = maxEventsPerRequest }
+
+        /**[ExperimentalConfig.maxRequestBytes]を変更します。*/
+        var maxRequestBytes: Int = DEFAULT_MAX_REQUEST_BYTES @JvmSynthetic set
+
+        /**[ExperimentalConfig.maxRequestBytes]を変更します。*/
+        fun maxRequestBytes(maxRequestBytes: Int): Builder = apply { this.maxRequestBytes = maxRequestBytes }
+
+        /**[ExperimentalConfig.httpEngine]を変更します。*/
+        var httpEngine: HttpEngineType = HttpEngineType.DEFAULT @JvmSynthetic set
+
+        /**[ExperimentalConfig.httpEngine]を変更します。*/
+        fun httpEngine(httpEngine: HttpEngineType): Builder = apply { this.httpEngine = httpEngine }
+
+        /**[ExperimentalConfig.asyncTracking]を変更します。*/
+        var asyncTracking: Boolean = false @JvmSynthetic set
+
+        /**[ExperimentalConfig.asyncTracking]を変更します。*/
+        fun asyncTracking(asyncTracking: Boolean): Builder = apply { this.asyncTracking = asyncTracking }
+
+        /**[ExperimentalConfig.ingestionCapacity]を変更します。*/
+        var ingestionCapacity: Int = DEFAULT_INGESTION_CAPACITY @JvmSynthetic set
+
+        /**[ExperimentalConfig.ingestionCapacity]を変更します。*/
+        fun ingestionCapacity(ingestionCapacity: Int): Builder = apply { this.ingestionCapacity = ingestionCapacity }
+
+        /**[ExperimentalConfig.backpressurePolicy]を変更します。*/
+        var backpressurePolicy: BackpressurePolicy = BackpressurePolicy.DROP_OLDEST @JvmSynthetic set
+
+        /**[ExperimentalConfig.backpressurePolicy]を変更します。*/
+        fun backpressurePolicy(backpressurePolicy: BackpressurePolicy): Builder =
+            apply { this.backpressurePolicy = backpressurePolicy }
+
+        /**[ExperimentalConfig.dequeuePageSize]を変更します。*/
+        var dequeuePageSize: Int = DEFAULT_DEQUEUE_PAGE_SIZE @JvmSynthetic set
+
+        /**[ExperimentalConfig.dequeuePageSize]を変更します。*/
+        fun dequeuePageSize(dequeuePageSize: Int): Builder = apply { this.dequeuePageSize = dequeuePageSize }
+
+        /**[ExperimentalConfig.maxInFlightEvents]を変更します。*/
+        var maxInFlightEvents: Int = DEFAULT_MAX_IN_FLIGHT_EVENTS @JvmSynthetic set
+
+        /**[ExperimentalConfig.maxInFlightEvents]を変更します。*/
+        fun maxInFlightEvents(maxInFlightEvents: Int): Builder = apply { this.maxInFlightEvents = maxInFlightEvents }
+
+        /**[ExperimentalConfig.backgroundFlush]を変更します。*/
+        var backgroundFlush: Boolean = false @JvmSynthetic set
+
+        /**[ExperimentalConfig.backgroundFlush]を変更します。*/
+        fun backgroundFlush(backgroundFlush: Boolean): Builder = apply { this.backgroundFlush = backgroundFlush }
+
+        /**[ExperimentalConfig.coalesceWindowMs]を変更します。*/
+        var coalesceWindowMs: Long = 0 @JvmSynthetic set
+
+        /**[ExperimentalConfig.coalesceWindowMs]を変更します。*/
+        fun coalesceWindowMs(coalesceWindowMs: Long): Builder = apply { this.coalesceWindowMs = coalesceWindowMs }
+
+        /**[ExperimentalConfig.maxConcurrentRequests]を変更します。*/
+        var maxConcurrentRequests: Int = 1 @JvmSynthetic set
+
+        /**[ExperimentalConfig.maxConcurrentRequests]を変更します。*/
+        fun maxConcurrentRequests(maxConcurrentRequests: Int): Builder =
+            apply { this.maxConcurrentRequests = maxConcurrentRequests }
+
+        /**[ExperimentalConfig.compactEncoding]を変更します。*/
+        var compactEncoding: Boolean = false @JvmSynthetic set
+
+        /**[ExperimentalConfig.compactEncoding]を変更します。*/
+        fun compactEncoding(compactEncoding: Boolean): Builder = apply { this.compactEncoding = compactEncoding }
+
         /**[ExperimentalConfig]クラスのインスタンスを生成します。*/
         override fun build(): ExperimentalConfig = ExperimentalConfig(
             operationMode,
+            maxEventsPerRequest,
+            maxRequestBytes,
+            httpEngine,
+            asyncTracking,
+            ingestionCapacity,
+            backpressurePolicy,
+            dequeuePageSize,
+            maxInFlightEvents,
+            backgroundFlush,
+            coalesceWindowMs,
+            maxConcurrentRequests,
+            compactEncoding,
             appKey,
             apiKey,
             baseUrl,
@@ -0,0 +1,31 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.core.config
+
+/**
+ * HTTPリクエストの送信に利用する実装を表す列挙型です。
+ */
+enum class HttpEngineType {
+    /** OS標準の`HttpURLConnection`を利用 */
+    DEFAULT,
+
+    /**
+     * OkHttpを利用
+     *
+     * アプリがOkHttpに依存している場合のみ有効です。見つからない場合は [DEFAULT] を利用します。
+     */
+    OKHTTP
+}
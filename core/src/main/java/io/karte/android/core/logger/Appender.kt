@@ -18,7 +18,19 @@ package io.karte.android.core.logger
 
 import android.util.Log
 
-internal interface Appender {
+/**
+ * ログの出力先を表すインタフェースです。
+ *
+ * [Logger.addAppender]で登録すると、[Logger.level]以上のログが渡されます。
+ * [java.io.Flushable]を実装している場合、アプリがバックグラウンドに遷移した際に`flush`が呼び出されます。
+ */
+interface Appender {
+    /**
+     * ログを出力します。
+     *
+     * ログを出力したスレッドで呼び出されるため、時間のかかる処理は別スレッドで行ってください。
+     * @param[log] ログ
+     */
     fun append(log: LogEvent)
 }
 
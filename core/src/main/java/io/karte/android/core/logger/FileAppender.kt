@@ -0,0 +1,151 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.core.logger
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.util.Log
+import java.io.Closeable
+import java.io.File
+import java.io.FileOutputStream
+import java.io.Flushable
+import java.io.IOException
+import java.io.OutputStreamWriter
+import java.io.Writer
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+private const val LOG_TAG = "Karte.FileAppender"
+private const val DEFAULT_CAPACITY = 256
+private const val DEFAULT_MAX_FILE_BYTES = 1024 * 1024L
+
+/**
+ * ログをファイルに出力するクラスです。
+ *
+ * ログは固定長のリングバッファに積まれ、専用のスレッドでまとめて書き込まれます。
+ * 書き込みが追いつかずバッファが溢れた場合は古いログから破棄します。
+ * ファイルサイズが[maxFileBytes]を超えた場合は、`.1`を付けた名前に退避してから新しいファイルに書き込みます。
+ *
+ * @param[file] 出力先のファイル
+ * @param[capacity] バッファに保持するログの件数
+ * @param[maxFileBytes] 出力先のファイルサイズの上限
+ */
+class FileAppender @JvmOverloads constructor(
+    private val file: File,
+    capacity: Int = DEFAULT_CAPACITY,
+    private val maxFileBytes: Long = DEFAULT_MAX_FILE_BYTES
+) : Appender, Flushable, Closeable {
+    private val buffer = arrayOfNulls<LogEvent>(capacity.coerceAtLeast(1))
+    private var head = 0
+    private var count = 0
+    private var isDrainScheduled = false
+
+    /** バッファが溢れて破棄されたログの件数を返します。 */
+    @Volatile
+    var droppedCount: Long = 0
+        private set
+
+    private val thread = HandlerThread("io.karte.android.FileAppender").apply { start() }
+    private val handler = Handler(thread.looper)
+    private val drainTask = Runnable { drain() }
+    private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US)
+    private var writer: Writer? = null
+
+    override fun append(log: LogEvent) {
+        synchronized(buffer) {
+            if (count == buffer.size) {
+                head = (head + 1) % buffer.size
+                count--
+                droppedCount++
+            }
+            buffer[(head + count) % buffer.size] = log
+            count++
+            if (isDrainScheduled) return
+            isDrainScheduled = true
+        }
+        handler.post(drainTask)
+    }
+
+    /**
+     * バッファに残っているログの書き込みを予約します。
+     *
+     * メインスレッドから呼び出されるため、書き込みは専用のスレッドで行います。
+     */
+    override fun flush() {
+        synchronized(buffer) {
+            if (count == 0 || isDrainScheduled) return
+            isDrainScheduled = true
+        }
+        handler.post(drainTask)
+    }
+
+    /** バッファに残っているログをこのスレッドで書き込み、ファイルを閉じます。 */
+    override fun close() {
+        handler.removeCallbacks(drainTask)
+        drain()
+        synchronized(this) {
+            writer?.close()
+            writer = null
+        }
+        thread.quitSafely()
+    }
+
+    private fun take(): List<LogEvent> = synchronized(buffer) {
+        val logs = List(count) { buffer[(head + it) % buffer.size]!! }
+        buffer.fill(null)
+        head = 0
+        count = 0
+        isDrainScheduled = false
+        logs
+    }
+
+    @Synchronized
+    private fun drain() {
+        val logs = take()
+        if (logs.isEmpty()) return
+        try {
+            val writer = writer()
+            logs.forEach { writer.write(format(it)) }
+            writer.flush()
+        } catch (e: IOException) {
+            // Loggerを使うと自身に再度出力されるため、直接出力する
+            Log.e(LOG_TAG, "Failed to write logs.", e)
+        }
+    }
+
+    private fun writer(): Writer {
+        val current = writer
+        if (current != null && file.length() < maxFileBytes) return current
+
+        current?.close()
+        if (file.length() >= maxFileBytes) {
+            file.renameTo(File(file.path + ".1"))
+        }
+        file.parentFile?.mkdirs()
+        return OutputStreamWriter(FileOutputStream(file, true), Charsets.UTF_8).also { writer = it }
+    }
+
+    private fun format(log: LogEvent): String {
+        val builder = StringBuilder()
+            .append(dateFormat.format(Date(log.timestamp))).append(' ')
+            .append(log.level.name[0]).append('/')
+            .append(log.tag).append(": ")
+            .append(log.message).append('\n')
+        log.throwable?.let { builder.append(Log.getStackTraceString(it)).append('\n') }
+        return builder.toString()
+    }
+}
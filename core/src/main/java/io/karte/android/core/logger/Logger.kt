@@ -17,12 +17,16 @@ package io.karte.android.core.logger
 
 import io.karte.android.BuildConfig
 import java.io.Flushable
+import java.util.concurrent.CopyOnWriteArrayList
 
 /**
  * ログを出力するためのクラスです。
+ *
+ * メッセージの組み立てにコストがかかる場合は、ラムダを受け取るオーバーロードを利用してください。
+ * 出力されないレベルのログではラムダは評価されません。
  */
 object Logger {
-    private val appenders = listOf(ConsoleAppender())
+    private val appenders = CopyOnWriteArrayList<Appender>(listOf(ConsoleAppender()))
 
     /**
      * ログレベルの取得および設定を行います。
@@ -42,6 +46,16 @@ object Logger {
         log(LogLevel.VERBOSE, tag, message, throwable)
     }
 
+    /**
+     * ログ(Verbose)を出力します。
+     * @param[tag] タグ
+     * @param[throwable] 例外オブジェクト
+     * @param[message] メッセージを返す関数。出力されないレベルの場合は呼び出されません。
+     */
+    inline fun v(tag: String?, throwable: Throwable? = null, message: () -> String) {
+        if (isLoggable(LogLevel.VERBOSE)) log(LogLevel.VERBOSE, tag, message(), throwable)
+    }
+
     /**
      * ログ(Debug)を出力します。
      * @param[tag] タグ
@@ -54,6 +68,16 @@ object Logger {
         log(LogLevel.DEBUG, tag, message, throwable)
     }
 
+    /**
+     * ログ(Debug)を出力します。
+     * @param[tag] タグ
+     * @param[throwable] 例外オブジェクト
+     * @param[message] メッセージを返す関数。出力されないレベルの場合は呼び出されません。
+     */
+    inline fun d(tag: String?, throwable: Throwable? = null, message: () -> String) {
+        if (isLoggable(LogLevel.DEBUG)) log(LogLevel.DEBUG, tag, message(), throwable)
+    }
+
     /**
      * ログ(Info)を出力します。
      * @param[tag] タグ
@@ -66,6 +90,16 @@ object Logger {
         log(LogLevel.INFO, tag, message, throwable)
     }
 
+    /**
+     * ログ(Info)を出力します。
+     * @param[tag] タグ
+     * @param[throwable] 例外オブジェクト
+     * @param[message] メッセージを返す関数。出力されないレベルの場合は呼び出されません。
+     */
+    inline fun i(tag: String?, throwable: Throwable? = null, message: () -> String) {
+        if (isLoggable(LogLevel.INFO)) log(LogLevel.INFO, tag, message(), throwable)
+    }
+
     /**
      * ログ(Warning)を出力します。
      * @param[tag] タグ
@@ -78,6 +112,16 @@ object Logger {
         log(LogLevel.WARN, tag, message, throwable)
     }
 
+    /**
+     * ログ(Warning)を出力します。
+     * @param[tag] タグ
+     * @param[throwable] 例外オブジェクト
+     * @param[message] メッセージを返す関数。出力されないレベルの場合は呼び出されません。
+     */
+    inline fun w(tag: String?, throwable: Throwable? = null, message: () -> String) {
+        if (isLoggable(LogLevel.WARN)) log(LogLevel.WARN, tag, message(), throwable)
+    }
+
     /**
      * ログ(Error)を出力します。
      * @param[tag] タグ
@@ -90,7 +134,44 @@ object Logger {
         log(LogLevel.ERROR, tag, message, throwable)
     }
 
-    private fun log(level: LogLevel, tag: String?, message: String, throwable: Throwable?) {
+    /**
+     * ログ(Error)を出力します。
+     * @param[tag] タグ
+     * @param[throwable] 例外オブジェクト
+     * @param[message] メッセージを返す関数。出力されないレベルの場合は呼び出されません。
+     */
+    inline fun e(tag: String?, throwable: Throwable? = null, message: () -> String) {
+        if (isLoggable(LogLevel.ERROR)) log(LogLevel.ERROR, tag, message(), throwable)
+    }
+
+    /**
+     * 指定したレベルのログが出力されるかどうかを返します。
+     * @param[level] ログレベル
+     */
+    @JvmStatic
+    fun isLoggable(level: LogLevel): Boolean = level != LogLevel.OFF && level >= this.level
+
+    /**
+     * ログの出力先を追加します。
+     * @param[appender] ログの出力先
+     */
+    @JvmStatic
+    fun addAppender(appender: Appender) {
+        appenders.addIfAbsent(appender)
+    }
+
+    /**
+     * ログの出力先を削除します。
+     * @param[appender] ログの出力先
+     */
+    @JvmStatic
+    fun removeAppender(appender: Appender) {
+        appenders.remove(appender)
+    }
+
+    @PublishedApi
+    internal fun log(level: LogLevel, tag: String?, message: String, throwable: Throwable?) {
+        if (!isLoggable(level)) return
         val log = LogEvent(level, tag, message, throwable)
         appenders.forEach { it.append(log) }
     }
@@ -123,4 +204,20 @@ enum class LogLevel {
     OFF
 }
 
-internal data class LogEvent(val level: LogLevel, val tag: String?, val message: String, val throwable: Throwable?)
+/**
+ * 出力するログを表すクラスです。
+ *
+ * @property[level] ログレベル
+ * @property[tag] タグ
+ * @property[message] メッセージ
+ * @property[throwable] 例外オブジェクト
+ * @property[timestamp] 出力された日時(エポックミリ秒)
+ */
+class LogEvent internal constructor(
+    val level: LogLevel,
+    val tag: String?,
+    val message: String,
+    val throwable: Throwable?
+) {
+    val timestamp: Long = System.currentTimeMillis()
+}
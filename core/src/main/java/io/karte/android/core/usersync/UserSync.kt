@@ -123,7 +123,7 @@ object UserSync {
             }
             val param = JSONObject()
                 .put(PARAM_VISITOR_ID, KarteApp.visitorId)
-                .put(PARAM_APP_INFO, KarteApp.self.appInfo?.json)
+                .put(PARAM_APP_INFO, KarteApp.self.appInfo?.snapshot?.json)
                 .put(PARAM_TIMESTAMP, Date().time / 1000)
             return param.toString()
         } catch (e: JSONException) {
@@ -29,6 +29,7 @@ import io.karte.android.KarteApp
 import io.karte.android.core.config.Config
 import io.karte.android.core.logger.Logger
 import io.karte.android.core.repository.Repository
+import io.karte.android.utilities.MessagePack
 import org.json.JSONException
 import org.json.JSONObject
 import java.util.Locale
@@ -44,6 +45,25 @@ private interface Serializable {
     fun serialize(): JSONObject
 }
 
+/**
+ * ある時点のアプリケーション情報です。生成後は変更されません。
+ *
+ * 利用のたびに直列化や複製をしないよう、内容とエンコードした結果を共有します。
+ *
+ * @suppress
+ */
+class AppInfoSnapshot internal constructor(internal val version: Int, json: JSONObject) {
+    /** 内容のJSONObjectです。他の利用箇所と共有するため、変更しないでください。 */
+    val json: JSONObject = json
+
+    /** 内容のJSON文字列です。 */
+    val text: String = json.toString()
+    internal val bytes: ByteArray = text.toByteArray(Charsets.UTF_8)
+
+    /** MessagePack形式でエンコードした内容. 利用する場合のみ作成する. */
+    internal val packed: ByteArray by lazy { MessagePack.pack(JSONObject(text)) }
+}
+
 /**アプリケーション情報を保持するクラスです。*/
 class AppInfo(context: Context, repository: Repository, config: Config) : Serializable {
     private val versionName: String?
@@ -56,8 +76,18 @@ class AppInfo(context: Context, repository: Repository, config: Config) : Serial
     private val prevVersionName: String? = repository.get<String?>(VERSION_NAME_KEY, null)
     private val prevVersionCode: Int = repository.get(VERSION_CODE_KEY, -1)
 
-    /**アプリケーション情報のJSONObjectです。*/
+    /**
+     * 最新のアプリケーション情報です。更新時は新しいインスタンスに差し替えられます。
+     *
+     * @suppress
+     */
+    @Volatile
+    var snapshot: AppInfoSnapshot
+        private set
+
+    /**アプリケーション情報のJSONObjectです。取得のたびに最新の内容の複製を返します。*/
     val json: JSONObject
+        get() = JSONObject(snapshot.text)
 
     init {
         // get current version
@@ -80,7 +110,7 @@ class AppInfo(context: Context, repository: Repository, config: Config) : Serial
         }
 
         systemInfo.advertisingId = repository.get<String?>(ADVERTISING_ID_KEY, null)
-        json = serialize()
+        snapshot = AppInfoSnapshot(0, serialize())
         if (config.enabledTrackingAaid) {
             AdvertisingId.getAdvertisingId(context) { aaid ->
                 Logger.d(LOG_TAG, "getAdvertisingId $aaid")
@@ -89,7 +119,7 @@ class AppInfo(context: Context, repository: Repository, config: Config) : Serial
                 updateSystemInfo()
             }
         }
-        Logger.v(LOG_TAG, "Constructed App info: $json")
+        Logger.v(LOG_TAG, "Constructed App info: ${snapshot.text}")
     }
 
     override fun serialize(): JSONObject = try {
@@ -131,11 +161,17 @@ class AppInfo(context: Context, repository: Repository, config: Config) : Serial
     }
 
     internal fun updateModuleInfo() {
-        json.put("module_info", moduleInfo.serialize())
+        publish()
     }
 
     private fun updateSystemInfo() {
-        json.put("system_info", systemInfo.serialize())
+        publish()
+    }
+
+    /** 現在の内容で新しいバージョンのスナップショットを作成し、差し替える. */
+    @Synchronized
+    private fun publish() {
+        snapshot = AppInfoSnapshot(snapshot.version + 1, serialize())
     }
 
     @SuppressLint("WebViewApiAvailability")
@@ -175,6 +211,7 @@ private class SystemInfo(val enabledTrackingAaid: Boolean, val screen: Screen, p
     private val brand: String? = Build.BRAND
     private val model: String? = Build.MODEL
     private val product: String? = Build.PRODUCT
+    @Volatile
     internal var advertisingId: String? = null
     val language: String? = Locale.getDefault().toLanguageTag()
 
@@ -15,7 +15,6 @@
 //
 package io.karte.android.tracking
 
-import io.karte.android.utilities.format
 import io.karte.android.utilities.merge
 import io.karte.android.utilities.toValues
 import org.json.JSONObject
@@ -64,29 +63,43 @@ open class Event {
      * * [Map]
      */
     var values: JSONObject
+        get() = normalizedValues
+        set(value) {
+            normalizedValues = value
+            isDeprecatedEventFieldName = EventValidator.isDeprecatedEventFieldName(value)
+        }
+    private var normalizedValues: JSONObject
     private val date = System.currentTimeMillis() / 1000L
     internal var isRetry = false
     val eventName: EventName
     internal val isRetryable: Boolean
     internal val isDeprecatedEventName: Boolean
-    internal val isDeprecatedEventFieldName: Boolean
+    internal var isDeprecatedEventFieldName: Boolean
+        private set
     val libraryName: String?
 
-    /** [JSONObject] による初期化 */
-    constructor(
+    private constructor(
         eventName: EventName,
-        jsonObject: JSONObject? = null,
-        isRetryable: Boolean? = null,
-        libraryName: String? = null
+        values: NormalizedValues,
+        isRetryable: Boolean?,
+        libraryName: String?
     ) {
         this.eventName = eventName
-        this.values = jsonObject?.format() ?: JSONObject()
+        this.normalizedValues = values.json
         this.isRetryable = isRetryable ?: true
         this.isDeprecatedEventName = EventValidator.isDeprecatedEventName(eventName.value)
-        this.isDeprecatedEventFieldName = EventValidator.isDeprecatedEventFieldName(values)
+        this.isDeprecatedEventFieldName = values.hasDeprecatedFieldName
         this.libraryName = libraryName
     }
 
+    /** [JSONObject] による初期化 */
+    constructor(
+        eventName: EventName,
+        jsonObject: JSONObject? = null,
+        isRetryable: Boolean? = null,
+        libraryName: String? = null
+    ) : this(eventName, NormalizedValues.of(jsonObject), isRetryable, libraryName)
+
     /** [JSONObject] による初期化 */
     constructor(
         eventName: EventName,
@@ -100,12 +113,7 @@ open class Event {
         values: Values? = null,
         isRetryable: Boolean? = null,
         libraryName: String? = null
-    ) : this(
-        eventName,
-        values?.let { JSONObject(values.format()) },
-        isRetryable,
-        libraryName
-    )
+    ) : this(eventName, NormalizedValues.of(values), isRetryable, libraryName)
 
     /** [Values] による初期化 */
     constructor(
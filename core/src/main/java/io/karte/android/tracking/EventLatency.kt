@@ -0,0 +1,124 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.tracking
+
+import io.karte.android.tracking.queue.EventRecord
+import io.karte.android.tracking.queue.getCurrentTimeMillis
+
+/**
+ * イベントの送信が完了した際に、各段階の所要時間を受け取るためのタイプです。
+ */
+interface EventLatencyListener {
+    /**
+     * イベントの送信が完了した際に呼び出されます。
+     *
+     * 送信に失敗し、再送を行わずに破棄された場合も呼び出されます。
+     * イベントを送信するスレッドから呼び出されるため、重い処理は行わないでください。
+     *
+     * @param latency 各段階の時刻と所要時間
+     */
+    fun onComplete(latency: EventLatency)
+}
+
+/**
+ * イベントがトラッキングされてから送信が完了するまでの各段階の時刻を保持するクラスです。
+ *
+ * 時刻はいずれも端末の時計によるUNIX時間(ms)です。再送された場合、[dequeuedAt]と[requestedAt]は最後の送信時のものです。
+ *
+ * [prepareMs]と[requestMs]は端末の時計の変更の影響を受けない経過時間から求めます。
+ * [persistMs]と[waitMs]はプロセスの再起動をまたぐため端末の時計の時刻から求めます。
+ * 時計が巻き戻された場合は`0`となり、進められた場合は実際より長くなります。
+ *
+ * @property[traceId] イベントごとに一意なID
+ * @property[eventName] イベント名
+ * @property[isSuccessful] 送信に成功した場合は`true`
+ * @property[retry] 再送した回数
+ * @property[trackedAt] [Tracker.track]などが呼び出された時刻
+ * @property[persistedAt] 送信待ちとして保存された時刻
+ * @property[dequeuedAt] 送信するために読み出された時刻
+ * @property[requestedAt] リクエストを開始した時刻
+ * @property[completedAt] 送信が完了した時刻
+ * @property[prepareMs] 読み出されてからリクエストを開始するまでの時間(ms)
+ * @property[requestMs] リクエストを開始してから完了するまでの時間(ms)
+ */
+class EventLatency internal constructor(
+    val traceId: String,
+    val eventName: String,
+    val isSuccessful: Boolean,
+    val retry: Int,
+    val trackedAt: Long,
+    val persistedAt: Long,
+    val dequeuedAt: Long,
+    val requestedAt: Long,
+    val completedAt: Long,
+    val prepareMs: Long,
+    val requestMs: Long
+) {
+    /** トラッキングされてから保存されるまでの時間(ms) */
+    val persistMs: Long
+        get() = (persistedAt - trackedAt).coerceAtLeast(0)
+
+    /** 保存されてから読み出されるまでの時間(ms) */
+    val waitMs: Long
+        get() = (dequeuedAt - persistedAt).coerceAtLeast(0)
+
+    /** トラッキングされてから送信が完了するまでの時間(ms). 各段階の時間の合計です。 */
+    val totalMs: Long
+        get() = persistMs + waitMs + prepareMs + requestMs
+
+    override fun toString(): String =
+        "EventLatency(traceId=$traceId, eventName=$eventName, isSuccessful=$isSuccessful, retry=$retry, " +
+            "persistMs=$persistMs, waitMs=$waitMs, prepareMs=$prepareMs, requestMs=$requestMs, totalMs=$totalMs)"
+}
+
+/** 送信が完了したレコードの所要時間を[listener]に通知する. */
+internal object EventTracer {
+    @Volatile
+    var listener: EventLatencyListener? = null
+
+    val isEnabled: Boolean
+        get() = listener != null
+
+    fun complete(
+        records: List<EventRecord>,
+        isSuccessful: Boolean,
+        dequeuedAt: Long,
+        requestedAt: Long,
+        prepareMs: Long,
+        requestMs: Long
+    ) {
+        val listener = listener ?: return
+        if (records.isEmpty()) return
+        val completedAt = getCurrentTimeMillis()
+        records.forEach {
+            listener.onComplete(
+                EventLatency(
+                    it.traceId,
+                    it.event.eventName.value,
+                    isSuccessful,
+                    it.retry,
+                    it.trackedAt,
+                    it.persistedAt,
+                    dequeuedAt,
+                    requestedAt,
+                    completedAt,
+                    prepareMs,
+                    requestMs
+                )
+            )
+        }
+    }
+}
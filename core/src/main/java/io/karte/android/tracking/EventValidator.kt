@@ -17,12 +17,11 @@
 package io.karte.android.tracking
 
 import io.karte.android.utilities.isAscii
-import io.karte.android.utilities.toMap
 import org.json.JSONObject
 import java.util.regex.Pattern
 
 private val EVENT_NAME_REGEX = Pattern.compile("[^a-z0-9_]")
-internal val INVALID_FIELD_NAMES = listOf(
+internal val INVALID_FIELD_NAMES = setOf(
     "_source",
     "_system",
     "any",
@@ -59,14 +58,14 @@ internal object EventValidator {
             messages.add("Multi-byte character in event name is deprecated: Event=$eventName")
         }
 
-        if (isDeprecatedEventName(eventName)) {
+        if (event.isDeprecatedEventName) {
             messages.add(
                 "[^a-z0-9_] or starting with _ in event name is deprecated:" +
                     " Event=$eventName"
             )
         }
 
-        if (isDeprecatedEventFieldName(event.values)) {
+        if (event.isDeprecatedEventFieldName) {
             messages.add(
                 "Contains dots(.) or stating with $ or $INVALID_FIELD_NAMES" +
                     " in event field name is deprecated:" +
@@ -105,14 +104,17 @@ internal object EventValidator {
 
     /** 非推奨なフィールド名が含まれるかどうかを返します。 */
     internal fun isDeprecatedEventFieldName(values: JSONObject): Boolean {
-        if (values.length() == 0) {
-            return false
-        }
-        return values.toMap().any {
-            it.key.startsWith("$") || it.key.contains(".") || INVALID_FIELD_NAMES.contains(it.key)
+        val keys = values.keys()
+        while (keys.hasNext()) {
+            if (isDeprecatedFieldName(keys.next())) return true
         }
+        return false
     }
 
+    /** 非推奨なフィールド名かどうかを返します。 */
+    internal fun isDeprecatedFieldName(key: String): Boolean =
+        key.startsWith("$") || key.contains(".") || INVALID_FIELD_NAMES.contains(key)
+
     /** 無効な値が含まれるかを返します。 */
     private fun validateEventFieldValue(eventName: String, values: JSONObject): Boolean {
         if (values.length() == 0) {
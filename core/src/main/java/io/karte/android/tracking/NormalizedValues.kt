@@ -0,0 +1,97 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.tracking
+
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+import java.util.Date
+
+/**
+ * Track API向けに正規化したイベントのvalues.
+ *
+ * 中間の[Map]を作らずに[JSONObject]へ直接コピーし、同じ走査でトップレベルのフィールド名を検証する.
+ * - `null` は取り除く. 明示的に指定された [JSONObject.NULL] は残す
+ * - JSONで表現できない`NaN`や無限大は、[JSONObject.put]と同じく[JSONException]を投げる
+ * - [Date] はUNIX時間(秒)に変換する
+ * - [Map] [Collection] [Array] は入れ子も含めて [JSONObject] [JSONArray] に変換する
+ */
+internal class NormalizedValues private constructor(
+    val json: JSONObject,
+    val hasDeprecatedFieldName: Boolean
+) {
+    companion object {
+        fun of(values: JSONObject?): NormalizedValues {
+            if (values == null) return NormalizedValues(JSONObject(), false)
+            val json = JSONObject()
+            var deprecated = false
+            val keys = values.keys()
+            while (keys.hasNext()) {
+                val key = keys.next()
+                val value = normalize(values.opt(key)) ?: continue
+                json.put(key, value)
+                deprecated = deprecated || EventValidator.isDeprecatedFieldName(key)
+            }
+            return NormalizedValues(json, deprecated)
+        }
+
+        fun of(values: Map<*, *>?): NormalizedValues {
+            if (values == null) return NormalizedValues(JSONObject(), false)
+            val json = JSONObject()
+            var deprecated = false
+            values.forEach { (key, value) ->
+                val normalized = normalize(value) ?: return@forEach
+                val name = key.toString()
+                json.put(name, normalized)
+                deprecated = deprecated || EventValidator.isDeprecatedFieldName(name)
+            }
+            return NormalizedValues(json, deprecated)
+        }
+
+        private fun normalize(value: Any?): Any? = when (value) {
+            null -> null
+            JSONObject.NULL -> JSONObject.NULL
+            is Date -> value.time / 1000
+            is Double, is Float -> value.also { checkFinite((it as Number).toDouble()) }
+            is String, is Number, is Boolean -> value
+            is JSONObject -> JSONObject().also { json ->
+                val keys = value.keys()
+                while (keys.hasNext()) {
+                    val key = keys.next()
+                    normalize(value.opt(key))?.let { json.put(key, it) }
+                }
+            }
+            is Map<*, *> -> JSONObject().also { json ->
+                value.forEach { (key, element) -> normalize(element)?.let { json.put(key.toString(), it) } }
+            }
+            is JSONArray -> JSONArray().also { array ->
+                for (i in 0 until value.length()) normalize(value.opt(i))?.let { array.put(it) }
+            }
+            is Collection<*> -> JSONArray().also { array ->
+                value.forEach { element -> normalize(element)?.let { array.put(it) } }
+            }
+            is Array<*> -> JSONArray().also { array ->
+                value.forEach { element -> normalize(element)?.let { array.put(it) } }
+            }
+            // プリミティブ型の配列などは従来どおりJSONObjectの変換に任せる
+            else -> JSONObject.wrap(value)
+        }
+
+        private fun checkFinite(value: Double) {
+            if (!value.isFinite()) throw JSONException("Forbidden numeric value: $value")
+        }
+    }
+}
@@ -407,4 +407,34 @@ public final class Tracker {
     public static void setDelegate(@Nullable TrackerDelegate delegate) {
         TrackingService.setDelegate(delegate);
     }
+
+    /**
+     * 送信処理の計測値を受け取るリスナーを設定します。
+     * <p>
+     * リスナーが設定されている間のみ計測が行われます。{@code null} を設定すると計測を停止します。
+     *
+     * @param listener 計測値を受け取るリスナー
+     */
+    public static void setMetricsListener(@Nullable TrackerMetricsListener listener) {
+        TrackingService.setMetricsListener(listener);
+    }
+
+    /**
+     * 現時点の送信処理の計測値を返します。
+     *
+     * @return 計測値
+     */
+    @NonNull
+    public static TrackerMetrics getMetrics() {
+        return TrackingService.getMetrics();
+    }
+
+    /**
+     * イベントの送信が完了するたびに、各段階の所要時間を受け取るリスナーを設定します。
+     *
+     * @param listener 所要時間を受け取るリスナー
+     */
+    public static void setEventLatencyListener(@Nullable EventLatencyListener listener) {
+        TrackingService.setEventLatencyListener(listener);
+    }
 }
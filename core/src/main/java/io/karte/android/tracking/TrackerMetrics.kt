@@ -0,0 +1,216 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.tracking
+
+import io.karte.android.tracking.queue.IngestionStats
+import java.util.concurrent.atomic.AtomicLongArray
+
+/** 1ストライプあたりの要素数. 隣接するセルが同じキャッシュラインに載らないように間隔を空ける. */
+private const val CELL_PADDING = 8
+/** セルの数. 2のべき乗とする. */
+private const val STRIPES = 8
+private val LATENCY_BOUNDS_MS = listOf(50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L)
+
+/**
+ * 送信処理の計測値を受け取るためのタイプです。
+ */
+interface TrackerMetricsListener {
+    /**
+     * 計測値が更新された際に呼び出されます。
+     *
+     * イベントを送信するスレッドから呼び出されるため、重い処理は行わないでください。
+     *
+     * @param metrics 計測値
+     */
+    fun onUpdate(metrics: TrackerMetrics)
+}
+
+/**
+ * 送信処理の計測値を保持するクラスです。
+ *
+ * 計測は[Tracker.setMetricsListener]でリスナーが設定されている間のみ行われます。
+ *
+ * @property[eventsTracked] トラッキングされたイベント数
+ * @property[eventsPersisted] 送信待ちとして保存されたイベント数
+ * @property[eventsRejected] `TrackEventRejectionFilter`により送信から除外されたイベント数
+ * @property[eventsSent] 送信に成功したイベント数
+ * @property[eventsRetried] 再送待ちに戻されたイベント数
+ * @property[eventsDropped] 送信されずに破棄されたイベント数
+ * @property[eventsRecovered] 送信中のままプロセスが終了したため、再送待ちに戻すか破棄したイベント数の累計。
+ * リスナーの設定有無に関わらず集計されます。
+ * @property[queueDepth] 保存前の受付キューに溜まっているイベント数
+ * @property[queueHighWaterMark] 保存前の受付キューに溜まったイベント数の最大値
+ * @property[queueDropped] 保存前の受付キューが満杯のため破棄したイベント数の累計。リスナーの設定有無に関わらず集計されます。
+ * @property[requestLatency] 応答を受け取ったリクエストの所要時間
+ * @property[bytesBeforeGzip] 圧縮して送信したリクエストの圧縮前のバイト数
+ * @property[bytesAfterGzip] 圧縮して送信したリクエストの圧縮後のバイト数
+ * @property[rateLimitTrips] 送信頻度の制限により送信を見合わせた回数
+ * @property[circuitBreakerTrips] 失敗が続いたため再送を見合わせた回数
+ */
+class TrackerMetrics internal constructor(
+    val eventsTracked: Long,
+    val eventsPersisted: Long,
+    val eventsRejected: Long,
+    val eventsSent: Long,
+    val eventsRetried: Long,
+    val eventsDropped: Long,
+    val eventsRecovered: Long,
+    val queueDepth: Int,
+    val queueHighWaterMark: Int,
+    val queueDropped: Long,
+    val requestLatency: LatencyHistogram,
+    val bytesBeforeGzip: Long,
+    val bytesAfterGzip: Long,
+    val rateLimitTrips: Long,
+    val circuitBreakerTrips: Long
+) {
+    override fun toString(): String =
+        "TrackerMetrics(tracked=$eventsTracked, persisted=$eventsPersisted, rejected=$eventsRejected, " +
+            "sent=$eventsSent, retried=$eventsRetried, dropped=$eventsDropped, recovered=$eventsRecovered, " +
+            "queueDepth=$queueDepth, " +
+            "queueHighWaterMark=$queueHighWaterMark, queueDropped=$queueDropped, " +
+            "requestLatency=$requestLatency, bytesBeforeGzip=$bytesBeforeGzip, bytesAfterGzip=$bytesAfterGzip, " +
+            "rateLimitTrips=$rateLimitTrips, circuitBreakerTrips=$circuitBreakerTrips)"
+}
+
+/**
+ * リクエストの所要時間の分布を表すクラスです。
+ *
+ * @property[upperBoundsMs] 各区間の上限(ms)
+ * @property[counts] 各区間に含まれるリクエスト数。最後の要素は[upperBoundsMs]の最大値を超えたリクエスト数です。
+ * @property[totalMs] 所要時間の合計(ms)
+ */
+class LatencyHistogram internal constructor(
+    val upperBoundsMs: List<Long>,
+    val counts: List<Long>,
+    val totalMs: Long
+) {
+    /** リクエスト数 */
+    val count: Long
+        get() = counts.sum()
+
+    override fun toString(): String = "LatencyHistogram(upperBoundsMs=$upperBoundsMs, counts=$counts)"
+}
+
+/** 計測する項目. */
+internal enum class Metric {
+    Tracked,
+    Persisted,
+    Rejected,
+    Sent,
+    Retried,
+    Dropped,
+    BytesBeforeGzip,
+    BytesAfterGzip,
+    RateLimitTrips,
+    CircuitBreakerTrips
+}
+
+/**
+ * スレッドごとに異なるセルへ加算して、書き込みの競合を避けるカウンター.
+ * `LongAdder`がAPI 24以降のため、簡易的に同等のことを行う.
+ */
+internal class StripedCounter {
+    private val cells = AtomicLongArray(STRIPES * CELL_PADDING)
+
+    fun add(value: Long) {
+        val index = (Thread.currentThread().id.toInt() and (STRIPES - 1)) * CELL_PADDING
+        cells.addAndGet(index, value)
+    }
+
+    fun sum(): Long {
+        var sum = 0L
+        for (i in 0 until STRIPES) sum += cells.get(i * CELL_PADDING)
+        return sum
+    }
+
+    fun reset() {
+        for (i in 0 until STRIPES) cells.set(i * CELL_PADDING, 0)
+    }
+}
+
+/**
+ * 送信処理の計測値を集計する.
+ *
+ * リスナーが設定されていない間は記録を行わず、呼び出し元の負荷は揮発性変数の読み出し一回のみとなる.
+ */
+internal object MetricsRecorder {
+    @Volatile
+    var listener: TrackerMetricsListener? = null
+
+    /** 受付キューの状態を返す関数. 送信処理の開始時に設定する. */
+    @Volatile
+    var ingestionStats: () -> IngestionStats? = { null }
+
+    /** 送信中のまま残っていたため復旧したイベント数の累計を返す関数. 送信処理の開始時に設定する. */
+    @Volatile
+    var recoveredEvents: () -> Long = { 0 }
+
+    private val counters = Array(Metric.values().size) { StripedCounter() }
+    private val latencyCounts = Array(LATENCY_BOUNDS_MS.size + 1) { StripedCounter() }
+    private val latencyTotal = StripedCounter()
+
+    val isEnabled: Boolean
+        get() = listener != null
+
+    fun count(metric: Metric, value: Long = 1) {
+        if (!isEnabled || value <= 0) return
+        counters[metric.ordinal].add(value)
+    }
+
+    fun count(metric: Metric, value: Int) = count(metric, value.toLong())
+
+    fun recordLatency(elapsedMs: Long) {
+        if (!isEnabled) return
+        val bucket = LATENCY_BOUNDS_MS.indexOfFirst { elapsedMs <= it }
+        latencyCounts[if (bucket < 0) LATENCY_BOUNDS_MS.size else bucket].add(1)
+        latencyTotal.add(elapsedMs)
+    }
+
+    fun snapshot(): TrackerMetrics {
+        fun sum(metric: Metric) = counters[metric.ordinal].sum()
+        val stats = ingestionStats()
+        return TrackerMetrics(
+            sum(Metric.Tracked),
+            sum(Metric.Persisted),
+            sum(Metric.Rejected),
+            sum(Metric.Sent),
+            sum(Metric.Retried),
+            sum(Metric.Dropped),
+            recoveredEvents(),
+            stats?.depth ?: 0,
+            stats?.highWaterMark ?: 0,
+            stats?.dropped ?: 0,
+            LatencyHistogram(LATENCY_BOUNDS_MS, latencyCounts.map { it.sum() }, latencyTotal.sum()),
+            sum(Metric.BytesBeforeGzip),
+            sum(Metric.BytesAfterGzip),
+            sum(Metric.RateLimitTrips),
+            sum(Metric.CircuitBreakerTrips)
+        )
+    }
+
+    /** リスナーに最新の計測値を通知する. */
+    fun publish() {
+        val listener = listener ?: return
+        listener.onUpdate(snapshot())
+    }
+
+    fun reset() {
+        counters.forEach { it.reset() }
+        latencyCounts.forEach { it.reset() }
+        latencyTotal.reset()
+    }
+}
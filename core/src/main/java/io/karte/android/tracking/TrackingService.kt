@@ -16,62 +16,86 @@
 package io.karte.android.tracking
 
 import io.karte.android.KarteApp
+import io.karte.android.core.config.ExperimentalConfig
 import io.karte.android.core.library.TrackModule
+import io.karte.android.core.logger.LogLevel
 import io.karte.android.core.logger.Logger
 import io.karte.android.tracking.queue.Dispatcher
-import io.karte.android.tracking.queue.EventRecord
+import io.karte.android.tracking.queue.FlushJobService
+import io.karte.android.tracking.queue.TrackSnapshot
 import io.karte.android.utilities.toValues
 import org.json.JSONObject
 
 private const val LOG_TAG = "Karte.Tracker"
 
-/** Local cap for event values is 1mb */
-private const val MAX_VALUES_SIZE = 1024 * 1024
-
 internal class TrackingService internal constructor() {
 
-    private val dispatcher = Dispatcher()
+    private val dispatcher = Dispatcher(::prepare)
+    @Volatile
     private var delegate: TrackerDelegate? = null
+    private val isAsync = (KarteApp.self.config as? ExperimentalConfig)?.asyncTracking ?: false
+    private val isBackgroundFlushEnabled = (KarteApp.self.config as? ExperimentalConfig)?.backgroundFlush ?: false
 
     internal fun track(inEvent: Event, visitorId: String? = null, completion: TrackCompletion? = null) {
         if (KarteApp.isOptOut) return
-        EventValidator.getDeprecatedMessages(inEvent)
-            .forEach { Logger.w(LOG_TAG, it) }
+        MetricsRecorder.count(Metric.Tracked)
+        if (isAsync) {
+            // 呼び出し元のスレッドではスナップショットの作成のみ行い、加工とシリアライズはDispatcherのスレッドで行う
+            dispatcher.push(snapshotOf(inEvent, visitorId, completion, false))
+            return
+        }
+        dispatcher.push(snapshotOf(prepare(inEvent), visitorId, completion, true))
+    }
 
-        if (inEvent.isDeprecatedEventName) {
-            Logger.w(
-                LOG_TAG,
-                "[^a-z0-9_] or starting with _ in event name is deprecated: Event=${inEvent.eventName.value}"
-            )
+    private fun snapshotOf(
+        event: Event,
+        visitorId: String?,
+        completion: TrackCompletion?,
+        isPrepared: Boolean
+    ): TrackSnapshot {
+        if (event.eventName.value == BaseEventName.View.value) {
+            KarteApp.self.pvIdContainer.renew()
         }
+        return TrackSnapshot(
+            event,
+            visitorId ?: KarteApp.visitorId,
+            KarteApp.self.originalPvId,
+            KarteApp.self.pvId,
+            completion,
+            isPrepared
+        )
+    }
 
-        if (inEvent.isDeprecatedEventFieldName) {
-            Logger.w(
-                LOG_TAG,
-                "Contains dots(.) or stating with $ or $INVALID_FIELD_NAMES in event field name is deprecated: EventName=${inEvent.eventName.value},FieldName=${inEvent.values}"
-            )
+    private fun prepare(inEvent: Event): Event {
+        // 構築時に判定済みのフラグを使い、警告は一度だけ出力する
+        if (Logger.isLoggable(LogLevel.WARN)) {
+            EventValidator.getDeprecatedMessages(inEvent)
+                .forEach { Logger.w(LOG_TAG, it) }
         }
 
         Logger.d(LOG_TAG, "track")
         var event = delegate?.intercept(inEvent) ?: inEvent
         KarteApp.self.modules.filterIsInstance<TrackModule>()
             .forEach { event = it.prepare(event) }
-        if (event.eventName.value == BaseEventName.View.value) {
-            KarteApp.self.pvIdContainer.renew()
+        return event
+    }
+
+    /** アプリがバックグラウンドに移行した際の処理. */
+    internal fun onBackground() {
+        dispatcher.onBackground()
+        scheduleFlush()
+    }
+
+    /** 送信待ちのイベントが残っている場合のみ、送信するジョブを予約する. */
+    internal fun scheduleFlush() {
+        if (!isBackgroundFlushEnabled) return
+        dispatcher.checkPending { hasPending ->
+            if (hasPending) FlushJobService.schedule(KarteApp.self.application)
         }
-        runCatching {
-            val record = EventRecord(
-                visitorId ?: KarteApp.visitorId,
-                KarteApp.self.originalPvId,
-                KarteApp.self.pvId,
-                event
-            )
-            if (record.size > MAX_VALUES_SIZE) {
-                Logger.w(LOG_TAG, "Event values too big. ${record.size}")
-                return@runCatching
-            }
-            dispatcher.push(record, completion)
-        }.onFailure { Logger.e(LOG_TAG, "Exception occurred when push event. $it") }
+    }
+
+    internal fun flush(onComplete: (hasPending: Boolean) -> Unit) {
+        dispatcher.flush(onComplete)
     }
 
     internal fun teardown() {
@@ -149,5 +173,19 @@ internal class TrackingService internal constructor() {
         fun setDelegate(delegate: TrackerDelegate?) {
             KarteApp.self.tracker?.delegate = delegate
         }
+
+        @JvmStatic
+        fun setMetricsListener(listener: TrackerMetricsListener?) {
+            MetricsRecorder.listener = listener
+        }
+
+        @JvmStatic
+        val metrics: TrackerMetrics
+            get() = MetricsRecorder.snapshot()
+
+        @JvmStatic
+        fun setEventLatencyListener(listener: EventLatencyListener?) {
+            EventTracer.listener = listener
+        }
     }
 }
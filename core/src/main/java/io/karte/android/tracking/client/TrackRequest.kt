@@ -18,26 +18,40 @@ package io.karte.android.tracking.client
 import io.karte.android.KarteApp
 import io.karte.android.core.config.ExperimentalConfig
 import io.karte.android.core.config.OperationMode
+import io.karte.android.tracking.AppInfoSnapshot
 import io.karte.android.tracking.Event
 import io.karte.android.tracking.EventName
+import io.karte.android.utilities.MessagePack
+import io.karte.android.utilities.http.CONTENT_TYPE_JSON
+import io.karte.android.utilities.http.CONTENT_TYPE_MSGPACK
+import io.karte.android.utilities.http.GZIP_BUFFER_SIZE
 import io.karte.android.utilities.http.HEADER_APP_KEY
+import io.karte.android.utilities.http.HEADER_CONTENT_TYPE
 import io.karte.android.utilities.http.JSONRequest
 import io.karte.android.utilities.http.METHOD_POST
 import org.json.JSONArray
 import org.json.JSONObject
+import java.io.BufferedOutputStream
+import java.io.BufferedWriter
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+
+/** 設定された動作モードの送信先のパス. */
+internal fun trackEndpointPath(): String =
+    (KarteApp.self.config as? ExperimentalConfig)?.operationMode?.trackEndpointPath
+        ?: OperationMode.DEFAULT.trackEndpointPath
 
 internal fun requestOf(
     visitorId: String,
     originalPvId: String,
     pvId: String,
     events: List<Event>,
-    appInfo: JSONObject?
+    appInfo: AppInfoSnapshot?
 ): TrackRequest {
-    val trackEndpointPath =
-        (KarteApp.self.config as? ExperimentalConfig)?.operationMode?.trackEndpointPath
-            ?: OperationMode.DEFAULT.trackEndpointPath
     return TrackRequest(
-        "${KarteApp.self.config.baseUrl}/$trackEndpointPath",
+        "${KarteApp.self.config.baseUrl}/${trackEndpointPath()}",
         visitorId,
         originalPvId,
         pvId,
@@ -58,35 +72,45 @@ internal fun requestOf(
  *
  * @constructor クラスを初期化します。
  */
-class TrackRequest(
+class TrackRequest internal constructor(
     url: String,
     private val visitorId: String,
     val originalPvId: String,
     val pvId: String,
     private val events: List<Event>,
-    private val appInfo: JSONObject?
+    private val appInfo: AppInfoSnapshot?
 ) : JSONRequest(url, METHOD_POST) {
+    constructor(
+        url: String,
+        visitorId: String,
+        originalPvId: String,
+        pvId: String,
+        events: List<Event>,
+        appInfo: JSONObject?
+    ) : this(url, visitorId, originalPvId, pvId, events, appInfo?.let { AppInfoSnapshot(0, it) })
+
     constructor(
         url: String,
         visitorId: String,
         originalPvId: String,
         pvId: String,
         events: List<Event>
-    ) : this(url, visitorId, originalPvId, pvId, events, null)
+    ) : this(url, visitorId, originalPvId, pvId, events, null as AppInfoSnapshot?)
+
+    private val keys: JSONObject
+        get() = JSONObject()
+            .put("visitor_id", visitorId)
+            .put("original_pv_id", originalPvId)
+            .put("pv_id", pvId)
 
     /** bodyに書き込む内容を[JSONObject]として返します。 */
     val json: JSONObject
         get() {
             return JSONObject()
-                .put(
-                    "keys",
-                    JSONObject()
-                        .put("visitor_id", visitorId)
-                        .put("original_pv_id", originalPvId)
-                        .put("pv_id", pvId)
-                )
+                .put("keys", keys)
                 .apply {
-                    appInfo?.let { put("app_info", it) }
+                    // 外部から変更されても共有している内容に影響しないよう複製する
+                    appInfo?.let { put("app_info", JSONObject(it.text)) }
                 }
                 .put("events", JSONArray(events.map { it.toJSON() }))
         }
@@ -94,6 +118,57 @@ class TrackRequest(
         get() = runCatching { json.toString() }.getOrNull()
         set(_) {}
 
+    override val hasBody: Boolean
+        get() = true
+
+    /** bodyを[json]と同じ構造のMessagePack形式で書き込むかどうか. */
+    internal var isCompact: Boolean = false
+        set(value) {
+            field = value
+            headers[HEADER_CONTENT_TYPE] = if (value) CONTENT_TYPE_MSGPACK else CONTENT_TYPE_JSON
+        }
+
+    /** [json]全体を文字列に展開せず、イベント単位で書き込みます。 */
+    @Throws(IOException::class)
+    override fun writeBody(outputStream: OutputStream) {
+        if (isCompact) {
+            writeCompactBody(outputStream)
+            return
+        }
+        BufferedWriter(OutputStreamWriter(outputStream, Charsets.UTF_8)).use { writer ->
+            writer.write("{\"keys\":")
+            writer.write(keys.toString())
+            appInfo?.let {
+                writer.write(",\"app_info\":")
+                // エンコード済みの内容をそのまま書き込む
+                writer.flush()
+                outputStream.write(it.bytes)
+            }
+            writer.write(",\"events\":[")
+            events.forEachIndexed { index, event ->
+                if (index > 0) writer.write(",")
+                writer.write(event.toJSON().toString())
+            }
+            writer.write("]}")
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun writeCompactBody(outputStream: OutputStream) {
+        DataOutputStream(BufferedOutputStream(outputStream, GZIP_BUFFER_SIZE)).use { out ->
+            MessagePack.writeMapHeader(out, if (appInfo != null) 3 else 2)
+            MessagePack.writeString(out, "keys")
+            MessagePack.write(out, keys)
+            appInfo?.let {
+                MessagePack.writeString(out, "app_info")
+                out.write(it.packed)
+            }
+            MessagePack.writeString(out, "events")
+            MessagePack.writeArrayHeader(out, events.size)
+            events.forEach { MessagePack.write(out, it.toJSON()) }
+        }
+    }
+
     init {
         headers[HEADER_APP_KEY] = KarteApp.self.appKey
     }
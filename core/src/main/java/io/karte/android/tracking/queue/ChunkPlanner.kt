@@ -0,0 +1,70 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.tracking.queue
+
+import kotlin.math.max
+import kotlin.math.min
+
+/** 1リクエストあたりのイベント数の初期値. */
+private const val INITIAL_EVENTS_PER_REQUEST = 10
+
+/** この時間内にレスポンスが返れば高速なネットワークとみなす. */
+private const val FAST_RESPONSE_MS = 1000L
+
+internal const val DEFAULT_MAX_EVENTS_PER_REQUEST = 50
+internal const val DEFAULT_MAX_REQUEST_BYTES = 512 * 1024
+
+/**
+ * 送信するイベントをリクエスト単位に分割する.
+ *
+ * 1リクエストあたりのイベント数は[INITIAL_EVENTS_PER_REQUEST]から始め、
+ * 従量制でないネットワークで高速に成功した場合は[maxEvents]まで倍々に増やし、失敗した場合は半分に減らす.
+ * イベント数に関わらず、[EventRecord.size]の合計は[maxBytes]を超えないように分割する.
+ */
+internal class ChunkPlanner(
+    private val maxEvents: Int = DEFAULT_MAX_EVENTS_PER_REQUEST,
+    private val maxBytes: Int = DEFAULT_MAX_REQUEST_BYTES
+) {
+    var eventLimit: Int = min(INITIAL_EVENTS_PER_REQUEST, maxEvents).coerceAtLeast(1)
+        private set
+
+    fun plan(records: List<EventRecord>): List<List<EventRecord>> {
+        val chunks = mutableListOf<List<EventRecord>>()
+        var chunk = mutableListOf<EventRecord>()
+        var bytes = 0
+        records.forEach {
+            if (chunk.isNotEmpty() && (chunk.size >= eventLimit || bytes + it.size > maxBytes)) {
+                chunks.add(chunk)
+                chunk = mutableListOf()
+                bytes = 0
+            }
+            chunk.add(it)
+            bytes += it.size
+        }
+        if (chunk.isNotEmpty()) chunks.add(chunk)
+        return chunks
+    }
+
+    fun onSuccess(elapsedMs: Long, isUnmetered: Boolean) {
+        if (isUnmetered && elapsedMs < FAST_RESPONSE_MS) {
+            eventLimit = min(eventLimit * 2, maxEvents).coerceAtLeast(1)
+        }
+    }
+
+    fun onFailure() {
+        eventLimit = max(eventLimit / 2, 1)
+    }
+}
@@ -15,27 +15,53 @@
 //
 package io.karte.android.tracking.queue
 
+import io.karte.android.core.repository.Repository
+
 private const val TIME_RECOVER_AFTER_MS = 300000L
+private const val KEY_FAILURE_COUNT = "circuit_breaker_failure_count_"
+private const val KEY_LAST_FAILED_AT = "circuit_breaker_last_failed_at_"
 
 internal fun getCurrentTimeMillisCB(): Long = System.currentTimeMillis()
 
-internal class CircuitBreaker(private val threshold: Int = 3, private val recoverAfter: Long = TIME_RECOVER_AFTER_MS) {
-    private var failureCount = 0
-    private var lastFailedAt = -1L
+/**
+ * 連続した失敗が[threshold]回に達した場合に、[recoverAfter]msの間リクエストを制限する.
+ *
+ * [repository]を指定した場合は状態を[endpoint]ごとに永続化し、プロセスの再起動後も引き継ぐ.
+ */
+internal class CircuitBreaker(
+    private val threshold: Int = 3,
+    private val recoverAfter: Long = TIME_RECOVER_AFTER_MS,
+    private val repository: Repository? = null,
+    endpoint: String = ""
+) {
+    private val failureCountKey = KEY_FAILURE_COUNT + endpoint
+    private val lastFailedAtKey = KEY_LAST_FAILED_AT + endpoint
+    private var failureCount = repository?.get(failureCountKey, 0) ?: 0
+    private var lastFailedAt = repository?.get(lastFailedAtKey, -1L) ?: -1L
 
     val canRequest: Boolean
         get() {
-            if ((getCurrentTimeMillisCB() - lastFailedAt) > recoverAfter) reset()
+            val elapsed = getCurrentTimeMillisCB() - lastFailedAt
+            // 端末の時刻が巻き戻された場合は、制限が解除されなくなるため期間が過ぎたものとして扱う
+            if (elapsed < 0 || elapsed > recoverAfter) reset()
             return failureCount < threshold
         }
 
     fun recordFailure() {
         failureCount++
         lastFailedAt = getCurrentTimeMillisCB()
+        persist()
     }
 
     fun reset() {
+        if (failureCount == 0 && lastFailedAt == -1L) return
         failureCount = 0
         lastFailedAt = -1
+        persist()
+    }
+
+    private fun persist() {
+        repository?.put(failureCountKey, failureCount)
+        repository?.put(lastFailedAtKey, lastFailedAt)
     }
 }
@@ -19,38 +19,130 @@ import android.os.Handler
 import android.os.HandlerThread
 import android.os.Looper
 import android.os.Process
+import android.os.SystemClock
+import android.provider.BaseColumns
 import io.karte.android.KarteApp
+import io.karte.android.core.config.BackpressurePolicy
+import io.karte.android.core.config.ExperimentalConfig
 import io.karte.android.core.library.ActionModule
 import io.karte.android.core.library.TrackModule
+import io.karte.android.core.logger.LogLevel
 import io.karte.android.core.logger.Logger
 import io.karte.android.tracking.BaseEventName
+import io.karte.android.tracking.Event
+import io.karte.android.tracking.EventTracer
 import io.karte.android.tracking.EventValidator
 import io.karte.android.tracking.MessageEventName
+import io.karte.android.tracking.Metric
+import io.karte.android.tracking.MetricsRecorder
 import io.karte.android.tracking.TrackCompletion
+import io.karte.android.tracking.client.TrackRequest
 import io.karte.android.tracking.client.TrackResponse
 import io.karte.android.tracking.client.requestOf
+import io.karte.android.tracking.client.trackEndpointPath
 import io.karte.android.utilities.connectivity.Connectivity
 import io.karte.android.utilities.connectivity.retryIntervalMs
 import io.karte.android.utilities.datastore.DataStore
 import io.karte.android.utilities.datastore.RelationalOperator
 import io.karte.android.utilities.http.Client
+import io.karte.android.utilities.http.Response
+import io.karte.android.utilities.http.STATUS_TOO_MANY_REQUESTS
+import io.karte.android.utilities.http.STATUS_UNSUPPORTED_MEDIA_TYPE
+import io.karte.android.utilities.http.retryAfterMs
 import java.util.UUID
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.math.max
 import kotlin.math.min
 
 private const val LOG_TAG = "Karte.Dispatcher"
 private const val MAX_RETRY_COUNT = 3
 private const val DEFAULT_DELAY_MS = 100L
+private const val REPOSITORY_NAMESPACE = "Dispatcher_"
 
-private data class GroupingKey(val visitorId: String, val originPvId: String, val pvId: String, val isRetry: Boolean)
+/** 429に待機時間の指定が無い場合の待機時間. */
+private const val DEFAULT_TOO_MANY_REQUESTS_DELAY_MS = 60_000L
+
+/** 送信中のまま残ったレコードを放棄されたとみなすまでの時間. リクエストのタイムアウトより十分に長くする. */
+private const val LEASE_DURATION_MS = 60_000L
+private const val RECOVERY_BATCH_SIZE = 500
+
+/** 一度のflushで送信するページ数の上限. */
+private const val MAX_FLUSH_PAGES = 20
+
+/** Local cap for event values is 1mb */
+private const val MAX_VALUES_SIZE = 1024 * 1024
+
+private data class PageViewKey(val visitorId: String, val originPvId: String, val pvId: String)
+
+private data class GroupingKey(
+    val visitorId: String,
+    val originPvId: String,
+    val pvId: String,
+    val isRetry: Boolean,
+    val priority: EventRecord.Priority
+) {
+    /** 送信順を保つ単位. 優先度や再送かどうかが異なっても同じページビューのイベントは順に送信する. */
+    val pageView: PageViewKey get() = PageViewKey(visitorId, originPvId, pvId)
+}
+
+/**
+ * 送信1回分の状態. [requestedAt]、[prepareMs]と[elapsed]は送信したスレッドで設定する.
+ * 所要時間は端末の時計の変更の影響を受けないよう、[SystemClock.elapsedRealtime]から求める.
+ */
+private data class Call(
+    val key: GroupingKey,
+    val events: List<EventRecord>,
+    val dequeuedAt: Long,
+    val accepted: Int,
+    val request: TrackRequest,
+    val dequeuedElapsedRealtime: Long
+) {
+    var requestedAt = 0L
+    var prepareMs = 0L
+    var elapsed = 0L
+}
 
 internal const val THREAD_NAME = "io.karte.android.Tracker"
+private const val IO_THREAD_NAME = "io.karte.android.Tracker.IO"
+internal const val DEFAULT_DEQUEUE_PAGE_SIZE = 100
+internal const val DEFAULT_MAX_IN_FLIGHT_EVENTS = 200
+private const val DEQUEUE_ORDER =
+    "${EventRecord.EventContract.PRIORITY} ASC, ${BaseColumns._ID} ASC"
 
-internal class Dispatcher {
+/**
+ * イベントの保存と送信を行う.
+ *
+ * @param[prepare] 加工が済んでいない[TrackSnapshot]に対して、送信前にこのスレッドで適用する処理
+ */
+internal class Dispatcher(private val prepare: (Event) -> Event = { it }) {
     private val thread =
         HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_LOWEST).apply { start() }
     private val handler: Handler = Handler(thread.looper)
     private val mainHandler = Handler(Looper.getMainLooper())
     private val completions = mutableMapOf<Long, TrackCompletion>()
+    private val ingestionQueue = (KarteApp.self.config as? ExperimentalConfig).let {
+        IngestionQueue<TrackSnapshot>(
+            it?.ingestionCapacity ?: DEFAULT_INGESTION_CAPACITY,
+            it?.backpressurePolicy ?: BackpressurePolicy.DROP_OLDEST,
+            isRetryable = { snapshot -> snapshot.event.isRetryable },
+            canBlock = { Looper.myLooper() != thread.looper },
+            onDrop = ::onDrop
+        )
+    }
+    private val isEnqueueScheduled = AtomicBoolean(false)
+    private val coalesceWindowMs = (KarteApp.self.config as? ExperimentalConfig)?.coalesceWindowMs ?: 0L
+    private val coalescer = if (coalesceWindowMs > 0) {
+        EventCoalescer(onDiscard = { completion -> mainHandler.post { completion.onComplete(false) } })
+    } else {
+        null
+    }
+    private var isDequeueScheduled = false
+    private val scheduledDequeue = Runnable {
+        isDequeueScheduled = false
+        dequeue()
+    }
     private var isSuspend: Boolean = false
         set(value) {
             if (value) {
@@ -60,8 +152,52 @@ internal class Dispatcher {
             }
             field = value
         }
-    private val rateLimit = RateLimit(handler)
-    private val retryCircuitBreaker = CircuitBreaker()
+    private val pageSize =
+        ((KarteApp.self.config as? ExperimentalConfig)?.dequeuePageSize ?: DEFAULT_DEQUEUE_PAGE_SIZE).coerceAtLeast(1)
+    private val maxInFlightEvents =
+        ((KarteApp.self.config as? ExperimentalConfig)?.maxInFlightEvents ?: DEFAULT_MAX_IN_FLIGHT_EVENTS)
+            .coerceAtLeast(1)
+    private var inFlightEvents = 0
+    private val maxConcurrentRequests =
+        ((KarteApp.self.config as? ExperimentalConfig)?.maxConcurrentRequests ?: 1).coerceAtLeast(1)
+
+    /** 並列に送信する場合の送信用スレッド. 1件ずつ送信する場合はこのスレッドで送信する. */
+    private val ioExecutor: ExecutorService? = if (maxConcurrentRequests > 1) {
+        Executors.newFixedThreadPool(maxConcurrentRequests) { runnable ->
+            Thread(runnable, IO_THREAD_NAME).apply { isDaemon = true }
+        }
+    } else {
+        null
+    }
+    private var inFlightRequests = 0
+
+    /** MessagePack形式で送信するかどうか. サーバーが対応していない場合は以降JSONで送信する. */
+    private var isCompactEncoding = (KarteApp.self.config as? ExperimentalConfig)?.compactEncoding ?: false
+
+    /** 同じページビュー内の送信順を保つため、並列に送信中のページビューのイベントは送信しない. */
+    private val inFlightKeys = mutableSetOf<PageViewKey>()
+
+    /** 並列に送信中のレコードのID. 期限が切れていても送信は続いているため、復旧の対象にしない. */
+    private val inFlightIds = mutableSetOf<Long>()
+    private val startedAt = getCurrentTimeMillis()
+    private var leaseCheckedAt = 0L
+    private var isRateLimited = false
+    private var isCircuitOpen = false
+
+    /** 送信中のまま残っていたため復旧したレコード数の累計. */
+    @Volatile
+    private var recoveredEvents = 0L
+    private val endpoint = trackEndpointPath()
+    private val repository = KarteApp.self.repository(REPOSITORY_NAMESPACE)
+    private val rateLimit = RateLimit(repository = repository, endpoint = endpoint)
+    private val retryCircuitBreaker = CircuitBreaker(repository = repository, endpoint = endpoint)
+    private val serverBackoff = ServerBackoff(repository, endpoint)
+    private val chunkPlanner = (KarteApp.self.config as? ExperimentalConfig).let {
+        ChunkPlanner(
+            it?.maxEventsPerRequest ?: DEFAULT_MAX_EVENTS_PER_REQUEST,
+            it?.maxRequestBytes ?: DEFAULT_MAX_REQUEST_BYTES
+        )
+    }
     private val filter by lazy {
         TrackEventRejectionFilter().apply {
             KarteApp.self.modules
@@ -74,126 +210,420 @@ internal class Dispatcher {
     init {
         DataStore.setup(KarteApp.self.application.applicationContext, EventRecord.EventContract)
         KarteApp.self.connectivityObserver?.subscribe(::connectivity)
+        handler.post(::recoverExpiredLeases)
+        MetricsRecorder.ingestionStats = { ingestionQueue.stats }
+        MetricsRecorder.recoveredEvents = { recoveredEvents }
     }
 
     private fun connectivity(available: Boolean) {
-        Logger.d(LOG_TAG, "connectivity changed: $available")
+        Logger.d(LOG_TAG) { "connectivity changed: $available" }
         isSuspend = !available
     }
 
     fun teardown() {
+        ioExecutor?.shutdown()
+        MetricsRecorder.ingestionStats = { null }
+        MetricsRecorder.recoveredEvents = { 0 }
         DataStore.teardown()
         KarteApp.self.connectivityObserver?.unsubscribe(::connectivity)
     }
 
-    fun push(record: EventRecord, completion: TrackCompletion?) {
-        Logger.d(LOG_TAG, "push event. ${record.event.eventName.value}")
-        handler.post { enqueue(record, completion) }
-        handler.postDelayed(::dequeue, DEFAULT_DELAY_MS)
+    fun push(snapshot: TrackSnapshot) {
+        if (!ingestionQueue.offer(snapshot)) return
+        // Looperのキューに積むのは未処理のenqueueが無い場合の一度だけにする
+        // まとめる対象を集めるため、有効な場合は一定時間遅らせる
+        if (isEnqueueScheduled.compareAndSet(false, true)) handler.postDelayed(::enqueue, coalesceWindowMs)
     }
 
-    private fun enqueue(record: EventRecord, completion: TrackCompletion?) {
-        if (!record.event.isRetryable && !Connectivity.isOnline(KarteApp.self.application)) {
-            Logger.w(
-                LOG_TAG,
-                "Failed to push Event to queue because unretryable event was detected while offline"
+    private fun onDrop(snapshot: TrackSnapshot) {
+        MetricsRecorder.count(Metric.Dropped)
+        Logger.w(LOG_TAG, "Ingestion queue is full. Dropped event: ${snapshot.event.eventName.value}")
+        snapshot.completion?.let { mainHandler.post { it.onComplete(false) } }
+    }
+
+    /** 加工が済んでいない場合は加工を行う. */
+    private fun preparedOf(snapshot: TrackSnapshot): TrackSnapshot? {
+        if (snapshot.isPrepared) return snapshot
+        return runCatching {
+            TrackSnapshot(
+                prepare(snapshot.event),
+                snapshot.visitorId,
+                snapshot.originalPvId,
+                snapshot.pvId,
+                snapshot.completion,
+                true,
+                snapshot.trackedAt
             )
-            mainHandler.post { completion?.onComplete(false) }
-            return
+        }.getOrElse {
+            Logger.e(LOG_TAG, "Exception occurred when push event. $it")
+            MetricsRecorder.count(Metric.Dropped)
+            snapshot.completion?.let { completion -> mainHandler.post { completion.onComplete(false) } }
+            null
+        }
+    }
+
+    /** シリアライズを行い、保存するレコードに変換する. */
+    private fun recordOf(snapshot: TrackSnapshot): Pair<EventRecord, TrackCompletion?>? = runCatching {
+        val record = EventRecord(
+            snapshot.visitorId,
+            snapshot.originalPvId,
+            snapshot.pvId,
+            snapshot.event,
+            snapshot.trackedAt
+        )
+        if (record.size > MAX_VALUES_SIZE) {
+            Logger.w(LOG_TAG, "Event values too big. ${record.size}")
+            MetricsRecorder.count(Metric.Dropped)
+            return null
+        }
+        record to snapshot.completion
+    }.getOrElse {
+        Logger.e(LOG_TAG, "Exception occurred when push event. $it")
+        MetricsRecorder.count(Metric.Dropped)
+        snapshot.completion?.let { completion -> mainHandler.post { completion.onComplete(false) } }
+        null
+    }
+
+    /** 溜まっているレコードをまとめて一つのトランザクションで保存し、dequeueを一度だけ予約する. */
+    private fun enqueue() {
+        isEnqueueScheduled.set(false)
+        // 一度に処理する件数を容量までに抑え、残りは改めて予約する
+        val pending = generateSequence(ingestionQueue::poll).take(ingestionQueue.capacity).toList()
+        if (ingestionQueue.stats.depth > 0 && isEnqueueScheduled.compareAndSet(false, true)) {
+            handler.post(::enqueue)
         }
-        val eventInvalidMessages = EventValidator.getInvalidMessages(record.event)
-        if (eventInvalidMessages.isNotEmpty()) {
-            eventInvalidMessages.forEach { Logger.w(LOG_TAG, it) }
+        if (pending.isEmpty()) return
+        Logger.d(LOG_TAG) { "enqueue events: ${pending.size}" }
+
+        val isOnline by lazy { Connectivity.isOnline(KarteApp.self.application) }
+        val prepared = pending.mapNotNull(::preparedOf)
+        val coalesced = coalescer?.coalesce(prepared) ?: prepared
+        val accepted = coalesced.mapNotNull(::recordOf).filter { (record, completion) ->
+            Logger.d(LOG_TAG) { "push event. ${record.event.eventName.value}" }
+            if (!record.event.isRetryable && !isOnline) {
+                Logger.w(
+                    LOG_TAG,
+                    "Failed to push Event to queue because unretryable event was detected while offline"
+                )
+                MetricsRecorder.count(Metric.Dropped)
+                mainHandler.post { completion?.onComplete(false) }
+                return@filter false
+            }
+            val eventInvalidMessages = EventValidator.getInvalidMessages(record.event)
+            if (eventInvalidMessages.isNotEmpty()) {
+                eventInvalidMessages.forEach { Logger.w(LOG_TAG, it) }
+            }
+            true
         }
 
-        val id = DataStore.put(record)
-        completion?.let {
+        val ids = DataStore.putAll(accepted.map { it.first })
+        val persisted = ids.count { it != -1L }
+        MetricsRecorder.count(Metric.Persisted, persisted)
+        MetricsRecorder.count(Metric.Dropped, accepted.size - persisted)
+        accepted.zip(ids).forEach { (pair, id) ->
+            val completion = pair.second ?: return@forEach
             if (id == -1L) {
                 Logger.e(LOG_TAG, "Failed to push Event to queue")
                 mainHandler.post { completion.onComplete(false) }
             } else {
-                completions[id] = it
+                completions[id] = completion
             }
         }
+        scheduleDequeue()
+    }
+
+    private fun scheduleDequeue(delayMs: Long = DEFAULT_DELAY_MS) {
+        if (isDequeueScheduled) return
+        isDequeueScheduled = true
+        handler.postDelayed(scheduledDequeue, delayMs)
     }
 
     private fun dequeue() {
+        if (dequeuePage()) handler.post(::dequeue)
+    }
+
+    /**
+     * 送信待ちのイベントを1ページ分送信する.
+     * 続きのページを送信できる場合は`true`を返す.
+     */
+    private fun dequeuePage(): Boolean {
         val online = Connectivity.isOnline(KarteApp.self.application)
-        Logger.d(LOG_TAG, "connectivity: $online.")
+        Logger.d(LOG_TAG) { "connectivity: $online." }
         if (!online) {
             Logger.v(LOG_TAG, "now connectivity is offline. suspend.")
-            return
+            return false
+        }
+        if (!serverBackoff.canRequest) {
+            val delayMs = serverBackoff.delayMs
+            Logger.w(LOG_TAG, "Server requested to back off. Delay it $delayMs ms.")
+            scheduleDequeue(delayMs)
+            return false
         }
-        if (!rateLimit.canRequest) {
-            Logger.w(LOG_TAG, "Request frequency is excessive. Delay it.")
-            return
+        val wasRateLimited = isRateLimited
+        isRateLimited = !rateLimit.canRequest
+        if (isRateLimited) {
+            if (!wasRateLimited) MetricsRecorder.count(Metric.RateLimitTrips)
+            val delayMs = rateLimit.delayMs
+            Logger.w(LOG_TAG, "Request frequency is excessive. Delay it $delayMs ms.")
+            scheduleDequeue(delayMs)
+            return false
         }
 
-        val records: MutableList<EventRecord> = mutableListOf()
-        runCatching {
-            DataStore.transaction().use { tx ->
-                records.addAll(
-                    tx.read(
-                        EventRecord.EventContract,
-                        listOf(
-                            Triple(
-                                EventRecord.EventContract.STATE,
-                                RelationalOperator.Unequal,
-                                EventRecord.State.Requesting.ordinal.toString()
-                            )
-                        )
-                    )
-                        .map {
-                            it.also { tx.update(it.apply { state = EventRecord.State.Requesting }) }
-                        }
-                )
-                tx.success()
-            }
-        }.onFailure {
+        if (getCurrentTimeMillis() - leaseCheckedAt > LEASE_DURATION_MS) recoverExpiredLeases()
+
+        val limit = min(pageSize, maxInFlightEvents - inFlightEvents)
+        if (limit <= 0 || inFlightRequests >= maxConcurrentRequests) return false
+
+        val query = pendingQuery()
+        val wasCircuitOpen = isCircuitOpen
+        isCircuitOpen = !retryCircuitBreaker.canRequest
+        if (isCircuitOpen) {
+            if (!wasCircuitOpen) MetricsRecorder.count(Metric.CircuitBreakerTrips)
+            query.add(Triple(EventRecord.EventContract.RETRY, RelationalOperator.Equal, "0"))
+        }
+        // バックログ全体ではなく、優先度順に1ページ分だけ読み込む
+        val records = runCatching {
+            DataStore.read(EventRecord.EventContract, query, DEQUEUE_ORDER, limit)
+        }.getOrElse {
             Logger.e(LOG_TAG, "Failed to read event record: ${it.message}", it)
+            emptyList()
         }
+        val dequeuedAt = getCurrentTimeMillis()
+        val dequeuedElapsedRealtime = SystemClock.elapsedRealtime()
+        var isAllSucceeded = true
+        var isSkipped = false
         records
-            .filter { retryCircuitBreaker.canRequest || it.retry == 0 }
             .groupBy(
-                { GroupingKey(it.visitorId, it.originalPvId, it.pvId, it.retry > 0) },
+                { GroupingKey(it.visitorId, it.originalPvId, it.pvId, it.retry > 0, it.priority) },
                 { it }
             )
+            // 優先度の高いレーンから送信する. 同じレーン内は保存順を保つ
+            .entries.sortedBy { it.key.priority }
             .forEach { (key, events) ->
-                Logger.d(LOG_TAG, "request events: ${events.size}")
-                // 10 events per request
-                events.chunked(10).forEach { request(key, it) }
+                Logger.d(LOG_TAG) { "request events: ${events.size}" }
+                chunkPlanner.plan(events).forEach {
+                    // サーバーから待機を指示された場合や、同時に送信できる数に達した場合は残りを送信しない
+                    // 送信しなかったレコードは送信待ちのままとなり、送信の完了後に改めて読み込む
+                    if (!serverBackoff.canRequest) return@forEach
+                    if (inFlightRequests >= maxConcurrentRequests || key.pageView in inFlightKeys) {
+                        isSkipped = true
+                        return@forEach
+                    }
+                    isAllSucceeded = request(key, it, dequeuedAt, dequeuedElapsedRealtime) && isAllSucceeded
+                }
+            }
+        // 失敗した場合は再送の予約に任せ、続きのページは読み込まない
+        // 送信中のため見送ったレコードがある場合は、送信の完了後に改めて読み込む
+        return records.size >= limit && isAllSucceeded && !isSkipped
+    }
+
+    /** アプリがバックグラウンドに移行した際に、未保存の送信頻度の記録を保存する. */
+    fun onBackground() {
+        handler.post { rateLimit.persist() }
+    }
+
+    /**
+     * 送信待ちのイベントをページ単位で続けて送信し、送信待ちが残っているかどうかを[onComplete]に渡す.
+     * [onComplete]はこのスレッドで呼び出される.
+     */
+    fun flush(onComplete: (hasPending: Boolean) -> Unit) {
+        handler.post {
+            enqueue()
+            for (i in 0 until MAX_FLUSH_PAGES) {
+                if (!dequeuePage()) break
             }
+            onComplete(hasPending())
+        }
+    }
+
+    /** 送信待ちのイベントがあるかどうかを[onResult]に渡す. [onResult]はこのスレッドで呼び出される. */
+    fun checkPending(onResult: (hasPending: Boolean) -> Unit) {
+        handler.post { onResult(hasPending()) }
     }
 
-    private fun request(key: GroupingKey, events: List<EventRecord>) {
-        logRequestEvents(UUID.randomUUID(), events)
+    private fun hasPending(): Boolean {
+        // 保存前のイベントと、並列に送信中のリクエストは完了していないため、送信待ちとして扱う
+        return ingestionQueue.stats.depth > 0 || inFlightRequests > 0 || runCatching {
+            DataStore.read(EventRecord.EventContract, pendingQuery(), null, 1).isNotEmpty()
+        }.getOrDefault(false)
+    }
+
+    private fun pendingQuery() = mutableListOf(
+        Triple(
+            EventRecord.EventContract.STATE,
+            RelationalOperator.Unequal,
+            EventRecord.State.Requesting.ordinal.toString()
+        )
+    )
+
+    /**
+     * 送信中のまま期限が切れたレコードを再送待ちに戻す.
+     *
+     * 以前のプロセスで送信中にされたものは、プロセスの終了により放棄されているため期限に関わらず戻す.
+     * このプロセスで並列に送信中のものは、応答を待っているだけのため期限が切れていても戻さない.
+     * 送信中に毎回プロセスが終了するレコードが残り続けないように、復旧も再送の1回として数える.
+     */
+    private fun recoverExpiredLeases() {
+        val now = getCurrentTimeMillis()
+        leaseCheckedAt = now
+        val query = listOf(
+            Triple(
+                EventRecord.EventContract.STATE,
+                RelationalOperator.Equal,
+                EventRecord.State.Requesting.ordinal.toString()
+            ),
+            Triple(
+                EventRecord.EventContract.LEASED_AT,
+                RelationalOperator.LessThan,
+                max(now - LEASE_DURATION_MS, startedAt).toString()
+            )
+        )
+        var recovered = 0
+        runCatching {
+            while (true) {
+                val leased = DataStore.read(EventRecord.EventContract, query, null, RECOVERY_BATCH_SIZE)
+                val expired = leased.filterNot { inFlightIds.contains(it.id) }
+                if (expired.isEmpty()) break
+                val (retries, drops) = expired.partition { it.retry < MAX_RETRY_COUNT && it.event.isRetryable }
+                val updated = DataStore.updateAll(
+                    retries.onEach {
+                        it.state = EventRecord.State.Failed
+                        it.retry += 1
+                        it.leasedAt = 0
+                    }
+                )
+                DataStore.deleteAll(EventRecord.EventContract, drops.map { it.id })
+                MetricsRecorder.count(Metric.Retried, updated)
+                MetricsRecorder.count(Metric.Dropped, drops.size)
+                recovered += expired.size
+                if (leased.size < RECOVERY_BATCH_SIZE || updated < retries.size) break
+            }
+        }.onFailure {
+            Logger.e(LOG_TAG, "Failed to recover event records: ${it.message}", it)
+        }
+        if (recovered == 0) return
+        recoveredEvents += recovered
+        Logger.w(LOG_TAG, "Recovered $recovered event records left in requesting state.")
+    }
 
+    /**
+     * 送信して結果を反映する. 再送が必要な失敗の場合は`false`を返す.
+     * 並列に送信する場合は送信を開始した時点で`true`を返し、結果はこのスレッドに戻して反映する.
+     */
+    private fun request(
+        key: GroupingKey,
+        events: List<EventRecord>,
+        dequeuedAt: Long,
+        dequeuedElapsedRealtime: Long
+    ): Boolean {
+        val call = callOf(key, events, dequeuedAt, dequeuedElapsedRealtime)
+        val executor = ioExecutor ?: return complete(call, execute(call))
+        inFlightRequests++
+        inFlightKeys.add(key.pageView)
+        events.forEach { inFlightIds.add(it.id) }
+        executor.execute {
+            val result = execute(call)
+            handler.post {
+                inFlightRequests--
+                inFlightKeys.remove(key.pageView)
+                events.forEach { inFlightIds.remove(it.id) }
+                if (complete(call, result)) scheduleDequeue(0)
+            }
+        }
+        return true
+    }
+
+    /** 送信するレコードを送信中にして、リクエストを組み立てる. */
+    private fun callOf(
+        key: GroupingKey,
+        events: List<EventRecord>,
+        dequeuedAt: Long,
+        dequeuedElapsedRealtime: Long
+    ): Call {
+        logRequestEvents(events)
+
+        // 送信するレコードのみを送信中にする
+        val leasedAt = getCurrentTimeMillis()
+        DataStore.updateAll(
+            events.onEach {
+                it.state = EventRecord.State.Requesting
+                it.leasedAt = leasedAt
+            }
+        )
+        inFlightEvents += events.size
         rateLimit.increment(events.size)
         val (visitorId, originalPvId, pvId) = key
-        val appInfo = KarteApp.self.appInfo?.json
+        val appInfo = KarteApp.self.appInfo?.snapshot
+        val accepted = events.filterNot { filter.reject(it.event) }
+        MetricsRecorder.count(Metric.Rejected, events.size - accepted.size)
         var request = requestOf(
             visitorId,
             originalPvId,
             pvId,
-            events
-                .filterNot { filter.reject(it.event) }
-                .map { it.event.apply { isRetry = it.retry > 0 } },
+            accepted.map { it.event.apply { isRetry = it.retry > 0 } },
             appInfo
         )
         KarteApp.self.modules.filterIsInstance<TrackModule>()
             .forEach { request = it.intercept(request) }
+        request.isCompact = isCompactEncoding
+        return Call(key, events, dequeuedAt, accepted.size, request, dequeuedElapsedRealtime)
+    }
+
+    /** 送信のみを行う. 並列に送信する場合は[ioExecutor]のスレッドで呼び出される. */
+    private fun execute(call: Call): Result<Response> = runCatching {
+        call.requestedAt = getCurrentTimeMillis()
+        val startedAt = SystemClock.elapsedRealtime()
+        call.prepareMs = startedAt - call.dequeuedElapsedRealtime
         try {
-            val response = Client.execute(request)
-            Logger.d(LOG_TAG, "response: ${response.code}")
+            Client.execute(call.request)
+        } finally {
+            call.elapsed = SystemClock.elapsedRealtime() - startedAt
+        }
+    }
+
+    private fun traceCompleted(records: List<EventRecord>, isSuccessful: Boolean, call: Call) {
+        EventTracer.complete(records, isSuccessful, call.dequeuedAt, call.requestedAt, call.prepareMs, call.elapsed)
+    }
+
+    /** 送信結果を反映する. 再送が必要な失敗の場合は`false`を返す. */
+    private fun complete(call: Call, result: Result<Response>): Boolean {
+        val (key, events) = call
+        var isSucceeded = true
+        try {
+            val response = result.getOrThrow()
+            val elapsed = call.elapsed
+            Logger.d(LOG_TAG) { "response: ${response.code}, ${elapsed}ms" }
+            MetricsRecorder.recordLatency(elapsed)
             when {
                 response.isSuccessful -> {
                     if (!key.isRetry) {
                         KarteApp.self.modules.filterIsInstance<ActionModule>()
-                            .forEach { it.receive(TrackResponse(response), request) }
+                            .forEach { it.receive(TrackResponse(response), call.request) }
                     }
                     retryCircuitBreaker.reset()
+                    chunkPlanner.onSuccess(elapsed, Connectivity.isUnmetered(KarteApp.self.application))
+                    MetricsRecorder.count(Metric.Sent, call.accepted)
 
                     removeFromQueue(events, true)
+                    traceCompleted(events, true, call)
+                }
+
+                response.code == STATUS_TOO_MANY_REQUESTS -> {
+                    val delayMs =
+                        response.retryAfterMs(getCurrentTimeMillis()) ?: DEFAULT_TOO_MANY_REQUESTS_DELAY_MS
+                    Logger.w(LOG_TAG, "Too many requests. Retry after $delayMs ms.")
+                    serverBackoff.delay(delayMs)
+                    traceCompleted(requeue(events), false, call)
+                    scheduleDequeue(delayMs)
+                    isSucceeded = false
+                }
+
+                response.code == STATUS_UNSUPPORTED_MEDIA_TYPE && call.request.isCompact -> {
+                    Logger.w(LOG_TAG, "Compact encoding is not supported by the server. Fall back to JSON.")
+                    isCompactEncoding = false
+                    requeue(events, true)
+                    scheduleDequeue(0)
+                    isSucceeded = false
                 }
 
                 response.code in 400..499 -> {
@@ -201,30 +631,39 @@ internal class Dispatcher {
                         LOG_TAG,
                         "Invalid request, not retryable. ${response.code}: '${response.body}'"
                     )
+                    MetricsRecorder.count(Metric.Dropped, events.size)
                     removeFromQueue(events, false)
+                    traceCompleted(events, false, call)
                 }
 
                 else -> {
                     Logger.e(LOG_TAG, "Failed to request. ${response.code}: '${response.body}'")
-                    handleFailure(events)
+                    response.retryAfterMs(getCurrentTimeMillis())?.let { serverBackoff.delay(it) }
+                    traceCompleted(handleFailure(events), false, call)
+                    isSucceeded = false
                 }
             }
         } catch (e: Throwable) {
             Logger.e(LOG_TAG, "Failed to send request.", e)
-            handleFailure(events)
+            traceCompleted(handleFailure(events), false, call)
+            isSucceeded = false
         }
-        rateLimit.decrementWithDelay(events.size, ::dequeue)
+        inFlightEvents -= events.size
+        MetricsRecorder.publish()
+        return isSucceeded
     }
 
-    private fun logRequestEvents(requestId: UUID, events: List<EventRecord>) {
+    private fun logRequestEvents(events: List<EventRecord>) {
+        // リリースビルドの既定のログレベルでは出力されないため、組み立て自体を省略する
+        if (!Logger.isLoggable(LogLevel.INFO)) return
+        val requestId = UUID.randomUUID()
         events.forEach {
-            val eventRecordId = it.recordId
+            val eventRecordId = it.traceId
             val visitorId = it.visitorId
             val eventName = it.event.eventName.value
-            Logger.v(
-                LOG_TAG,
+            Logger.v(LOG_TAG) {
                 "request event request_id=$requestId event_record_id=$eventRecordId visitor_id=$visitorId event_name=$eventName ${it.event.values}"
-            )
+            }
 
             when (eventName) {
                 BaseEventName.View.value -> {
@@ -256,23 +695,45 @@ internal class Dispatcher {
     }
 
     private fun removeFromQueue(events: List<EventRecord>, isSuccessful: Boolean) {
+        DataStore.deleteAll(EventRecord.EventContract, events.map { it.id })
         events.forEach {
-            DataStore.delete(it)
             completions.remove(it.id)?.let { mainHandler.post { it.onComplete(isSuccessful) } }
         }
     }
 
-    private fun handleFailure(events: List<EventRecord>) {
+    /**
+     * サーバーの都合で送信できなかったレコードを、再送回数を消費せずに送信待ちに戻す.
+     * すぐに送り直す場合を除き、リトライ不可能なイベントは通常の失敗と同様に破棄し、破棄したレコードを返す.
+     */
+    private fun requeue(events: List<EventRecord>, isImmediate: Boolean = false): List<EventRecord> {
+        val (retryables, drops) = events.partition { isImmediate || it.event.isRetryable }
+        DataStore.updateAll(
+            retryables.onEach {
+                it.state = EventRecord.State.Queued
+                it.leasedAt = 0
+            }
+        )
+        MetricsRecorder.count(Metric.Dropped, drops.size)
+        removeFromQueue(drops, false)
+        return drops
+    }
+
+    /** 再送待ちに戻すか破棄し、破棄したレコードを返す. */
+    private fun handleFailure(events: List<EventRecord>): List<EventRecord> {
         retryCircuitBreaker.recordFailure()
+        chunkPlanner.onFailure()
 
         var minRetryCount = MAX_RETRY_COUNT
+        val retries = mutableListOf<EventRecord>()
+        val drops = mutableListOf<EventRecord>()
         events.forEach {
             val nextRetryCount = it.retry + 1
             if (nextRetryCount <= MAX_RETRY_COUNT && it.event.isRetryable) {
-                DataStore.update(
+                retries.add(
                     it.apply {
                         state = EventRecord.State.Failed
                         retry = nextRetryCount
+                        leasedAt = 0
                     }
                 )
                 minRetryCount = min(it.retry, minRetryCount)
@@ -284,13 +745,18 @@ internal class Dispatcher {
                         "This event is not retryable."
                     }
                 Logger.w(LOG_TAG, logMessage)
-                DataStore.delete(it)
+                drops.add(it)
             }
             completions.remove(it.id)?.let { mainHandler.post { it.onComplete(false) } }
         }
-        if (minRetryCount > MAX_RETRY_COUNT) return
+        DataStore.updateAll(retries)
+        DataStore.deleteAll(EventRecord.EventContract, drops.map { it.id })
+        MetricsRecorder.count(Metric.Retried, retries.size)
+        MetricsRecorder.count(Metric.Dropped, drops.size)
+        if (minRetryCount > MAX_RETRY_COUNT) return drops
         val retryInterval = retryIntervalMs(minRetryCount)
-        Logger.d(LOG_TAG, "Retry after $retryInterval ms. count $minRetryCount")
+        Logger.d(LOG_TAG) { "Retry after $retryInterval ms. count $minRetryCount" }
         handler.postDelayed(::dequeue, retryInterval)
+        return drops
     }
 }
@@ -0,0 +1,147 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.tracking.queue
+
+import io.karte.android.tracking.AutoEventName
+import io.karte.android.tracking.BaseEventName
+import io.karte.android.tracking.Event
+import io.karte.android.tracking.TrackCompletion
+import io.karte.android.utilities.forEach
+import org.json.JSONObject
+
+private data class MergeKey(val visitorId: String, val pvId: String, val eventName: String)
+private data class DedupeKey(
+    val visitorId: String,
+    val pvId: String,
+    val eventName: String,
+    val values: String,
+    val isRetryable: Boolean
+)
+
+/** ビジュアルトラッキングの自動計測イベントかどうか. 同じ操作で複数のフックから発火することがある. */
+private fun isAutoTrackEvent(event: Event): Boolean =
+    event.values.optJSONObject("_system")?.optInt("auto_track") == 1
+
+/**
+ * 保存前のイベントをまとめて、キューに積むイベント数を減らす.
+ *
+ * 同じenqueueで処理される加工済みの[TrackSnapshot]を対象に、以下を行う.
+ * - [mergeableEventNames]のイベントは(visitorId, pvId, イベント名)ごとに一つにまとめる. 値は後のイベントで上書きし、
+ *   間にある他のイベントとの順序を変えないように最初のイベントの位置に残す.
+ * - `native_app_background`の直後に同じビジターの`native_app_foreground`が続いた場合は両方を破棄する.
+ * - 冪等なイベント([dedupeEventNames]とビジュアルトラッキングの自動計測イベント)は、
+ *   (visitorId, pvId, イベント名, 値)が一致するものを最初の一つのみ残す.
+ *   それ以外のイベントは同じ値でも別の事象として扱い、まとめない.
+ *
+ * まとめられたイベントの[TrackCompletion]は、残ったイベントの送信結果で呼び出される.
+ * 破棄したイベントは送信されないため、[TrackCompletion]には[onDiscard]を通じて`false`を通知する.
+ */
+internal class EventCoalescer(
+    private val mergeableEventNames: Set<String> = setOf(BaseEventName.Attribute.value),
+    private val dedupeEventNames: Set<String> = emptySet(),
+    private val onDiscard: (TrackCompletion) -> Unit = {}
+) {
+    fun coalesce(snapshots: List<TrackSnapshot>): List<TrackSnapshot> {
+        val result = mutableListOf<TrackSnapshot?>()
+        val mergeIndexes = mutableMapOf<MergeKey, Int>()
+        val dedupeIndexes = mutableMapOf<DedupeKey, Int>()
+        val lastIndexes = mutableMapOf<String, Int>()
+
+        snapshots.forEach { snapshot ->
+            val eventName = snapshot.event.eventName.value
+            val lastIndex = lastIndexes[snapshot.visitorId]
+            val last = lastIndex?.let { result[it] }
+
+            if (eventName in mergeableEventNames) {
+                val key = MergeKey(snapshot.visitorId, snapshot.pvId, eventName)
+                val index = mergeIndexes[key]
+                val previous = index?.let { result[it] }
+                if (index != null && previous != null) {
+                    result[index] = merge(previous, snapshot)
+                } else {
+                    result.add(snapshot)
+                    mergeIndexes[key] = result.lastIndex
+                }
+                // まとめた場合も、前後のbackgroundとforegroundは直後とみなさない
+                lastIndexes[snapshot.visitorId] = mergeIndexes.getValue(key)
+                return@forEach
+            }
+
+            if (eventName == AutoEventName.NativeAppForeground.value && lastIndex != null &&
+                last?.event?.eventName?.value == AutoEventName.NativeAppBackground.value
+            ) {
+                result[lastIndex] = null
+                listOfNotNull(last.completion, snapshot.completion).forEach(onDiscard)
+                lastIndexes.remove(snapshot.visitorId)
+                return@forEach
+            }
+
+            if (eventName !in dedupeEventNames && !isAutoTrackEvent(snapshot.event)) {
+                result.add(snapshot)
+                lastIndexes[snapshot.visitorId] = result.lastIndex
+                return@forEach
+            }
+
+            val key = DedupeKey(
+                snapshot.visitorId,
+                snapshot.pvId,
+                eventName,
+                snapshot.event.values.toString(),
+                snapshot.event.isRetryable
+            )
+            val duplicated = dedupeIndexes[key]?.let { index -> result[index]?.let { index to it } }
+            if (duplicated != null) {
+                result[duplicated.first] = withCompletion(duplicated.second, snapshot.completion)
+                return@forEach
+            }
+            result.add(snapshot)
+            dedupeIndexes[key] = result.lastIndex
+            lastIndexes[snapshot.visitorId] = result.lastIndex
+        }
+        return result.filterNotNull()
+    }
+
+    /** 後のイベントに前のイベントの値を補って一つにする. 送信順は前のイベントの位置とする. */
+    private fun merge(previous: TrackSnapshot, next: TrackSnapshot): TrackSnapshot {
+        val values = JSONObject()
+        previous.event.values.forEach { key, value -> values.put(key, value) }
+        next.event.values.forEach { key, value -> values.put(key, value) }
+        next.event.values = values
+        return withCompletion(next, previous.completion, previous.trackedAt)
+    }
+
+    private fun withCompletion(
+        snapshot: TrackSnapshot,
+        other: TrackCompletion?,
+        trackedAt: Long = snapshot.trackedAt
+    ): TrackSnapshot {
+        val completions = listOfNotNull(snapshot.completion, other)
+        val completion = if (completions.size > 1) {
+            TrackCompletion { success -> completions.forEach { it.onComplete(success) } }
+        } else {
+            completions.firstOrNull()
+        }
+        return TrackSnapshot(
+            snapshot.event,
+            snapshot.visitorId,
+            snapshot.originalPvId,
+            snapshot.pvId,
+            completion,
+            snapshot.isPrepared,
+            trackedAt
+        )
+    }
+}
@@ -16,38 +16,93 @@
 package io.karte.android.tracking.queue
 
 import android.database.Cursor
+import io.karte.android.tracking.BaseEventName
 import io.karte.android.tracking.Event
+import io.karte.android.tracking.MessageEventName
 import io.karte.android.utilities.datastore.Contract
 import io.karte.android.utilities.datastore.Persistable
 import java.util.UUID
 
+/** 現在時刻(ms)を表すSQLの式. */
+private const val CURRENT_TIME_MILLIS_SQL = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)"
+
 internal class EventRecord() : Persistable() {
-    val recordId: UUID get() = UUID.randomUUID()
+    /** レコードごとに一意なID. 送信までの各段階を関連付けるために保存しておく. */
+    val traceId: String get() = values[EventContract.TRACE_ID] as String
     val visitorId: String get() = values[EventContract.VISITOR_ID] as String
     val originalPvId: String get() = values[EventContract.ORIGINAL_PV_ID] as String
     val pvId: String get() = values[EventContract.PV_ID] as String
-    val event: Event get() = Event.fromJSON(values[EventContract.EVENT] as String)!!
+
+    /** 永続化用の文字列から一度だけ復元し、以降は同じインスタンスを返す. */
+    val event: Event by lazy { Event.fromJSON(values[EventContract.EVENT] as String)!! }
     var retry: Int
-        get() = values[EventContract.RETRY] as Int
+        get() = (values[EventContract.RETRY] as Number).toInt()
         set(value) {
             values[EventContract.RETRY] = value
         }
     var state: State
-        get() = State.values()[values[EventContract.STATE] as Int]
+        get() = State.values()[(values[EventContract.STATE] as Number).toInt()]
         set(value) {
             values[EventContract.STATE] = value.ordinal
         }
+    val priority: Priority get() = Priority.values()[(values[EventContract.PRIORITY] as Number).toInt()]
+
+    /** trackが呼び出された時刻(ms). */
+    val trackedAt: Long get() = (values[EventContract.TRACKED_AT] as Number).toLong()
+
+    /** 保存した時刻(ms). */
+    val persistedAt: Long get() = (values[EventContract.PERSISTED_AT] as Number).toLong()
+
+    /** 送信中にした時刻(ms). 送信中でない場合は`0`. */
+    var leasedAt: Long
+        get() = (values[EventContract.LEASED_AT] as? Number)?.toLong() ?: 0L
+        set(value) {
+            values[EventContract.LEASED_AT] = value
+        }
 
-    constructor(visitorId: String, originalPvId: String, pvId: String, event: Event) : this() {
+    constructor(
+        visitorId: String,
+        originalPvId: String,
+        pvId: String,
+        event: Event,
+        trackedAt: Long = getCurrentTimeMillis()
+    ) : this() {
         values[EventContract.VISITOR_ID] = visitorId
         values[EventContract.ORIGINAL_PV_ID] = originalPvId
         values[EventContract.PV_ID] = pvId
         values[EventContract.EVENT] = event.toJSON(true).toString()
         values[EventContract.RETRY] = 0
         values[EventContract.STATE] = State.Queued.ordinal
+        values[EventContract.PRIORITY] = Priority.of(event).ordinal
+        values[EventContract.LEASED_AT] = 0L
+        values[EventContract.TRACE_ID] = UUID.randomUUID().toString()
+        values[EventContract.TRACKED_AT] = trackedAt
+        values[EventContract.PERSISTED_AT] = getCurrentTimeMillis()
     }
 
     enum class State { Queued, Requesting, Failed }
+
+    /** 送信の優先度. 宣言順に送信する. */
+    enum class Priority {
+        /** 接客のレスポンスに影響するイベント */
+        High,
+
+        /** その他のイベント */
+        Normal;
+
+        companion object {
+            private val highPriorityEventNames = setOf(
+                BaseEventName.View.value,
+                BaseEventName.Identify.value,
+                MessageEventName.MessageReady.value,
+                MessageEventName.MessageOpen.value,
+                "_fetch_variables"
+            )
+
+            fun of(event: Event): Priority =
+                if (highPriorityEventNames.contains(event.eventName.value)) High else Normal
+        }
+    }
     object EventContract : Contract<EventRecord> {
         const val VISITOR_ID = "visitor_id"
         const val ORIGINAL_PV_ID = "original_pv_id"
@@ -55,16 +110,36 @@ internal class EventRecord() : Persistable() {
         const val EVENT = "event"
         const val RETRY = "retry"
         const val STATE = "state"
+        const val PRIORITY = "priority"
+        const val LEASED_AT = "leased_at"
+        const val TRACE_ID = "trace_id"
+        const val TRACKED_AT = "tracked_at"
+        const val PERSISTED_AT = "persisted_at"
 
         override val namespace = "events"
-        override val version: Int = 1
+        override val version: Int = 4
         override val columns: Map<String, Int> = mapOf(
             VISITOR_ID to Cursor.FIELD_TYPE_STRING,
             ORIGINAL_PV_ID to Cursor.FIELD_TYPE_STRING,
             PV_ID to Cursor.FIELD_TYPE_STRING,
             EVENT to Cursor.FIELD_TYPE_STRING,
             RETRY to Cursor.FIELD_TYPE_INTEGER,
-            STATE to Cursor.FIELD_TYPE_INTEGER
+            STATE to Cursor.FIELD_TYPE_INTEGER,
+            PRIORITY to Cursor.FIELD_TYPE_INTEGER,
+            LEASED_AT to Cursor.FIELD_TYPE_INTEGER,
+            TRACE_ID to Cursor.FIELD_TYPE_STRING,
+            TRACKED_AT to Cursor.FIELD_TYPE_INTEGER,
+            PERSISTED_AT to Cursor.FIELD_TYPE_INTEGER
+        )
+        override val indexedColumns: Set<String> = setOf(STATE)
+
+        /** 送信待ちのイベントを失わないよう、version 1以降に追加したカラムは既存の行に値を補って追加する. */
+        override val columnDefaults: Map<String, String> = mapOf(
+            PRIORITY to Priority.Normal.ordinal.toString(),
+            LEASED_AT to "0",
+            TRACE_ID to "lower(hex(randomblob(16)))",
+            TRACKED_AT to CURRENT_TIME_MILLIS_SQL,
+            PERSISTED_AT to CURRENT_TIME_MILLIS_SQL
         )
 
         override fun create(map: Map<String, Any?>): EventRecord = EventRecord().apply {
@@ -80,7 +155,12 @@ internal class EventRecord() : Persistable() {
         EventContract.PV_ID to pvId,
         EventContract.EVENT to values[EventContract.EVENT] as String,
         EventContract.RETRY to retry,
-        EventContract.STATE to values[EventContract.STATE] as Int
+        EventContract.STATE to values[EventContract.STATE],
+        EventContract.PRIORITY to values[EventContract.PRIORITY],
+        EventContract.LEASED_AT to leasedAt,
+        EventContract.TRACE_ID to traceId,
+        EventContract.TRACKED_AT to trackedAt,
+        EventContract.PERSISTED_AT to persistedAt
     )
 
     /** パフォーマンス優先で簡易的にlengthで計算する.
@@ -0,0 +1,67 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.tracking.queue
+
+import android.app.job.JobInfo
+import android.app.job.JobParameters
+import android.app.job.JobScheduler
+import android.app.job.JobService
+import android.content.ComponentName
+import android.content.Context
+import io.karte.android.KarteApp
+import io.karte.android.core.logger.Logger
+
+private const val LOG_TAG = "Karte.FlushJobService"
+
+/** アプリが利用するジョブIDと衝突しにくい値. */
+internal const val FLUSH_JOB_ID = 0x4b525446
+
+/**
+ * ネットワークに接続されている時に、保存済みの送信待ちイベントを送信するジョブ.
+ *
+ * アプリがバックグラウンドに移行した時点で予約し、プロセスが終了していても送信できるようにする.
+ * 送信は[Dispatcher]のスレッドで通常と同じ経路(`TrackModule.intercept`と`Client`)で行う.
+ */
+internal class FlushJobService : JobService() {
+    override fun onStartJob(params: JobParameters): Boolean {
+        val tracker = KarteApp.self.tracker
+        if (tracker == null) {
+            Logger.w(LOG_TAG, "SDK is not initialized. Skip flush.")
+            return false
+        }
+        Logger.d(LOG_TAG, "Start background flush.")
+        tracker.flush { hasPending ->
+            Logger.d(LOG_TAG) { "Finish background flush. hasPending: $hasPending" }
+            jobFinished(params, hasPending)
+        }
+        return true
+    }
+
+    override fun onStopJob(params: JobParameters): Boolean = true
+
+    companion object {
+        fun schedule(context: Context) {
+            val job = JobInfo.Builder(FLUSH_JOB_ID, ComponentName(context, FlushJobService::class.java))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .build()
+            runCatching {
+                (context.getSystemService(Context.JOB_SCHEDULER_SERVICE) as? JobScheduler)?.schedule(job)
+            }.onFailure {
+                Logger.e(LOG_TAG, "Failed to schedule background flush: ${it.message}", it)
+            }
+        }
+    }
+}
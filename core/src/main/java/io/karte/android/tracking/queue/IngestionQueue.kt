@@ -0,0 +1,136 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.tracking.queue
+
+import io.karte.android.core.config.BackpressurePolicy
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+internal const val DEFAULT_INGESTION_CAPACITY = 1024
+private const val BLOCK_PARK_NANOS = 100_000L
+private val BLOCK_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(500)
+
+/**
+ * [IngestionQueue]の状態.
+ *
+ * @property[capacity] 容量
+ * @property[depth] 現在格納されている要素数
+ * @property[dropped] 満杯のため破棄した要素数の累計
+ * @property[highWaterMark] 格納された要素数の最大値
+ */
+internal data class IngestionStats(val capacity: Int, val depth: Int, val dropped: Long, val highWaterMark: Int)
+
+/**
+ * 複数のスレッドから受け付けたイベントを単一のスレッドに受け渡すための容量制限付きのキュー.
+ *
+ * 満杯の場合は[policy]に従って要素を破棄するか、呼び出し元を待機させる.
+ * [BackpressurePolicy.DROP_NON_RETRYABLE]で途中から取り除いた要素のスロットは取り出されるまで空かないため、
+ * 内部のバッファは[capacity]の2倍を確保する.
+ *
+ * @param[isRetryable] [BackpressurePolicy.DROP_NON_RETRYABLE]で要素を残すかどうかの判定
+ * @param[canBlock] [BackpressurePolicy.BLOCK]で呼び出し元のスレッドを待機させてよいかどうかの判定
+ * @param[onDrop] 要素を破棄した際に呼び出される処理
+ */
+internal class IngestionQueue<T : Any>(
+    capacity: Int,
+    private val policy: BackpressurePolicy,
+    private val isRetryable: (T) -> Boolean = { true },
+    private val canBlock: () -> Boolean = { true },
+    private val onDrop: (T) -> Unit = {}
+) {
+    private val buffer = RingBuffer<T>(capacity.coerceIn(1, 1 shl 29) shl 1)
+    private val size = AtomicInteger()
+    private val dropped = AtomicLong()
+    private val highWaterMark = AtomicInteger()
+
+    /** 容量. 2のべき乗に切り上げる. */
+    val capacity: Int = buffer.capacity shr 1
+
+    val stats: IngestionStats
+        get() = IngestionStats(capacity, size.get(), dropped.get(), highWaterMark.get())
+
+    /** 要素を追加する. 追加する要素自体を破棄した場合は`false`を返す. */
+    fun offer(item: T): Boolean {
+        var deadline = 0L
+        var depth = reserve()
+        while (depth < 0) {
+            when (policy) {
+                BackpressurePolicy.DROP_OLDEST -> dropOldest()
+                BackpressurePolicy.DROP_NON_RETRYABLE -> if (!isRetryable(item) || !dropOldestNonRetryable()) {
+                    drop(item)
+                    return false
+                }
+
+                BackpressurePolicy.BLOCK -> {
+                    val now = System.nanoTime()
+                    if (deadline == 0L) deadline = now + BLOCK_TIMEOUT_NANOS
+                    if (canBlock() && now - deadline < 0) {
+                        LockSupport.parkNanos(BLOCK_PARK_NANOS)
+                    } else {
+                        dropOldest()
+                    }
+                }
+            }
+            depth = reserve()
+        }
+        if (!buffer.offer(item)) {
+            // 取り除いた要素のスロットがまだ空いていない
+            size.decrementAndGet()
+            drop(item)
+            return false
+        }
+        updateHighWaterMark(depth)
+        return true
+    }
+
+    /** 最も古い要素を取り出す. 空の場合は`null`を返す. */
+    fun poll(): T? = buffer.poll()?.also { size.decrementAndGet() }
+
+    /** 空きがあれば1つ確保し、確保後の要素数を返す. 空きが無い場合は`-1`を返す. */
+    private fun reserve(): Int {
+        while (true) {
+            val current = size.get()
+            if (current >= capacity) return -1
+            if (size.compareAndSet(current, current + 1)) return current + 1
+        }
+    }
+
+    private fun dropOldest() {
+        poll()?.let(::drop)
+    }
+
+    /** リトライ不可能な要素のうち最も古いものを破棄する. 無い場合は`false`を返す. */
+    private fun dropOldestNonRetryable(): Boolean {
+        val item = buffer.removeFirst { !isRetryable(it) } ?: return false
+        size.decrementAndGet()
+        drop(item)
+        return true
+    }
+
+    private fun drop(item: T) {
+        dropped.incrementAndGet()
+        onDrop(item)
+    }
+
+    private fun updateHighWaterMark(depth: Int) {
+        var current = highWaterMark.get()
+        while (depth > current && !highWaterMark.compareAndSet(current, depth)) {
+            current = highWaterMark.get()
+        }
+    }
+}
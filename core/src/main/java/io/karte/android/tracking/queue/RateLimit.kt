@@ -15,40 +15,75 @@
 //
 package io.karte.android.tracking.queue
 
-import android.os.Handler
+import io.karte.android.core.repository.Repository
+import kotlin.math.min
 
 private const val LIMIT_PER_WINDOW = 200
 private const val TIME_WINDOW_MS = 60000L
+private const val KEY_TIMESTAMPS = "rate_limit_timestamps_"
+private const val EMPTY = Long.MIN_VALUE
 
 internal fun getCurrentTimeMillis(): Long = System.currentTimeMillis()
 
+/**
+ * 直近[window]ms以内に送信したイベント数を[limit]件までに制限する.
+ *
+ * 送信したイベントごとの時刻を`limit + 1`件のリングに記録し、その中で最も古い時刻が[window]内であれば制限する.
+ * 送信ごとに遅延したコールバックを予約せずに判定できる.
+ * [repository]を指定した場合はリングを[endpoint]ごとに永続化し、プロセスの再起動後も引き継ぐ.
+ * 書き込みを減らすため、保存は制限に達した時点と[persist]の呼び出し時のみ行う.
+ */
 internal class RateLimit(
-    private val handler: Handler,
     private val limit: Int = LIMIT_PER_WINDOW,
-    private val window: Long = TIME_WINDOW_MS
+    private val window: Long = TIME_WINDOW_MS,
+    private val repository: Repository? = null,
+    endpoint: String = ""
 ) {
-    private var count = 0
-    private var lastIncrementedAt = getCurrentTimeMillis()
+    private val key = KEY_TIMESTAMPS + endpoint
+    private val timestamps = LongArray(limit + 1) { EMPTY }
+    private var next = 0
+    private var isDirty = false
+
+    init {
+        restore()
+    }
 
     val canRequest: Boolean
         get() {
-            // decrement漏れ対応
-            if (lastIncrementedAt < getCurrentTimeMillis() - window * 2) {
-                count = 0
-            }
-            return count <= limit
+            val oldest = timestamps[next]
+            val now = getCurrentTimeMillis()
+            // 端末の時刻が巻き戻された場合は制限しない
+            return oldest <= now - window || oldest > now
         }
 
+    /** 次に送信できるようになるまでの時間(ms). */
+    val delayMs: Long
+        get() = if (canRequest) 0 else timestamps[next] + window - getCurrentTimeMillis()
+
     fun increment(delta: Int = 1) {
-        count += delta
-        lastIncrementedAt = getCurrentTimeMillis()
+        val now = getCurrentTimeMillis()
+        repeat(min(delta, timestamps.size)) {
+            timestamps[next] = now
+            next = (next + 1) % timestamps.size
+        }
+        isDirty = true
+        // 制限に達した場合は、プロセスが終了しても制限を引き継げるようにすぐに保存する
+        if (!canRequest) persist()
+    }
+
+    /** 未保存の記録があれば古い順に並べて保存する. */
+    fun persist() {
+        val repository = repository ?: return
+        if (!isDirty) return
+        isDirty = false
+        val ordered = timestamps.indices.map { timestamps[(next + it) % timestamps.size] }
+        repository.put(key, ordered.filter { it != EMPTY }.joinToString(","))
     }
 
-    fun decrementWithDelay(delta: Int = 1, ops: (() -> Unit)? = null) {
-        handler.postDelayed({
-            count -= delta
-            if (count < 0) count = 0
-            ops?.invoke()
-        }, window)
+    private fun restore() {
+        val stored = repository?.get(key, "") ?: return
+        val restored = stored.split(",").mapNotNull { it.toLongOrNull() }.takeLast(timestamps.size)
+        restored.forEachIndexed { index, timestamp -> timestamps[index] = timestamp }
+        next = restored.size % timestamps.size
     }
 }
@@ -0,0 +1,105 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.tracking.queue
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * ロックを使わない固定長のリングバッファ.
+ *
+ * 各スロットにシーケンス番号を持たせ、書き込み位置と読み込み位置をCASで進める.
+ * 複数スレッドからの[offer]と[poll]を同時に呼び出せる.
+ * 容量は[capacity]以上の2のべき乗に切り上げる.
+ */
+internal class RingBuffer<T : Any>(capacity: Int) {
+    val capacity: Int = Integer.highestOneBit((capacity.coerceIn(2, 1 shl 30) - 1) shl 1)
+    private val mask = this.capacity - 1L
+    private val items = AtomicReferenceArray<T?>(this.capacity)
+    private val sequences = AtomicLongArray(this.capacity).apply {
+        for (i in 0 until length()) set(i, i.toLong())
+    }
+    private val tail = AtomicLong()
+    private val head = AtomicLong()
+
+    /** 格納されている要素数. [removeFirst]で取り除いた要素のスロットも含む. */
+    val size: Int
+        get() = (tail.get() - head.get()).coerceIn(0, capacity.toLong()).toInt()
+
+    /** 要素を追加する. 満杯の場合は`false`を返す. */
+    fun offer(item: T): Boolean {
+        var position = tail.get()
+        while (true) {
+            val index = (position and mask).toInt()
+            val diff = sequences.get(index) - position
+            when {
+                diff == 0L -> if (tail.compareAndSet(position, position + 1)) {
+                    items.set(index, item)
+                    sequences.set(index, position + 1)
+                    return true
+                } else {
+                    position = tail.get()
+                }
+
+                diff < 0L -> return false
+                else -> position = tail.get()
+            }
+        }
+    }
+
+    /** 最も古い要素を取り出す. 空の場合は`null`を返す. */
+    fun poll(): T? {
+        var position = head.get()
+        while (true) {
+            val index = (position and mask).toInt()
+            val diff = sequences.get(index) - (position + 1)
+            when {
+                diff == 0L -> if (head.compareAndSet(position, position + 1)) {
+                    val item = items.getAndSet(index, null)
+                    sequences.set(index, position + capacity)
+                    // removeFirstで取り除かれたスロットは読み飛ばす
+                    if (item != null) return item
+                    position = head.get()
+                } else {
+                    position = head.get()
+                }
+
+                diff < 0L -> return null
+                else -> position = head.get()
+            }
+        }
+    }
+
+    /**
+     * [predicate]を満たす要素のうち最も古いものを取り除く. 見つからない場合は`null`を返す.
+     *
+     * 取り除いたスロットは[poll]で読み飛ばされるまで空かない.
+     */
+    fun removeFirst(predicate: (T) -> Boolean): T? {
+        val end = tail.get()
+        var position = head.get()
+        while (position < end) {
+            val index = (position and mask).toInt()
+            if (sequences.get(index) == position + 1) {
+                val item = items.get(index)
+                if (item != null && predicate(item) && items.compareAndSet(index, item, null)) return item
+            }
+            position++
+        }
+        return null
+    }
+}
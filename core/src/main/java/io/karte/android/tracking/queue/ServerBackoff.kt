@@ -0,0 +1,57 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.tracking.queue
+
+import io.karte.android.core.repository.Repository
+
+/** サーバーの指定を信用する待機時間の上限. */
+private const val MAX_BACKOFF_MS = 3_600_000L
+private const val KEY_BLOCKED_UNTIL = "server_backoff_blocked_until_"
+
+/**
+ * サーバーから指定された時刻までリクエストを控える.
+ *
+ * [repository]を指定した場合は状態を[endpoint]ごとに永続化し、プロセスの再起動後も引き継ぐ.
+ */
+internal class ServerBackoff(private val repository: Repository? = null, endpoint: String = "") {
+    private val key = KEY_BLOCKED_UNTIL + endpoint
+    private var blockedUntil = repository?.get(key, 0L) ?: 0L
+
+    val canRequest: Boolean
+        get() = delayMs == 0L
+
+    /** 次に送信できるようになるまでの時間(ms). */
+    val delayMs: Long
+        get() {
+            val now = getCurrentTimeMillis()
+            val remaining = blockedUntil - now
+            if (remaining <= 0) return 0
+            // 端末の時刻が巻き戻された場合に長期間止まらないように、上限を超える時刻は切り詰めて保存し直す
+            if (remaining > MAX_BACKOFF_MS) {
+                blockedUntil = now + MAX_BACKOFF_MS
+                repository?.put(key, blockedUntil)
+            }
+            return blockedUntil - now
+        }
+
+    /** [delayMs]ms後までリクエストを控える. 既により遅い時刻まで控えている場合は変更しない. */
+    fun delay(delayMs: Long) {
+        val until = getCurrentTimeMillis() + delayMs.coerceIn(0, MAX_BACKOFF_MS)
+        if (until <= blockedUntil) return
+        blockedUntil = until
+        repository?.put(key, blockedUntil)
+    }
+}
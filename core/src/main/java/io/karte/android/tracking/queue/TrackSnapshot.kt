@@ -0,0 +1,38 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.tracking.queue
+
+import io.karte.android.tracking.Event
+import io.karte.android.tracking.TrackCompletion
+
+/**
+ * trackが呼び出された時点の状態.
+ *
+ * 呼び出し元のスレッドではこのスナップショットの作成のみを行い、
+ * イベントの加工やシリアライズは[Dispatcher]のスレッドで行う.
+ *
+ * @property[isPrepared] `TrackerDelegate`と`TrackModule`による加工が済んでいるかどうか
+ * @property[trackedAt] trackが呼び出された時刻(ms)
+ */
+internal class TrackSnapshot(
+    val event: Event,
+    val visitorId: String,
+    val originalPvId: String,
+    val pvId: String,
+    val completion: TrackCompletion?,
+    val isPrepared: Boolean,
+    val trackedAt: Long = getCurrentTimeMillis()
+)
@@ -0,0 +1,187 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.utilities
+
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+/**
+ * JSONと同じ構造をMessagePack形式で読み書きする.
+ *
+ * [JSONObject]はmap、[JSONArray]はarrayとして扱い、整数は値に応じて最小の符号付き形式で、小数はfloat 64で書き込む.
+ */
+internal object MessagePack {
+    fun pack(value: Any?): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { write(it, value) }
+        return bytes.toByteArray()
+    }
+
+    @Throws(IOException::class)
+    fun write(out: DataOutputStream, value: Any?) {
+        when (value) {
+            null, JSONObject.NULL -> out.writeByte(0xc0)
+            is Boolean -> out.writeByte(if (value) 0xc3 else 0xc2)
+            is Byte, is Short, is Int, is Long -> writeInteger(out, (value as Number).toLong())
+            is Number -> {
+                out.writeByte(0xcb)
+                out.writeDouble(value.toDouble())
+            }
+            is String -> writeString(out, value)
+            is JSONArray -> {
+                writeArrayHeader(out, value.length())
+                for (i in 0 until value.length()) write(out, value.opt(i))
+            }
+            is JSONObject -> {
+                writeMapHeader(out, value.length())
+                value.keys().forEach { key ->
+                    writeString(out, key)
+                    write(out, value.opt(key))
+                }
+            }
+            else -> writeString(out, value.toString())
+        }
+    }
+
+    @Throws(IOException::class)
+    fun writeMapHeader(out: DataOutputStream, size: Int) {
+        when {
+            size < 16 -> out.writeByte(0x80 or size)
+            size < 0x10000 -> {
+                out.writeByte(0xde)
+                out.writeShort(size)
+            }
+            else -> {
+                out.writeByte(0xdf)
+                out.writeInt(size)
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    fun writeArrayHeader(out: DataOutputStream, size: Int) {
+        when {
+            size < 16 -> out.writeByte(0x90 or size)
+            size < 0x10000 -> {
+                out.writeByte(0xdc)
+                out.writeShort(size)
+            }
+            else -> {
+                out.writeByte(0xdd)
+                out.writeInt(size)
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    fun writeString(out: DataOutputStream, value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        val size = bytes.size
+        when {
+            size < 32 -> out.writeByte(0xa0 or size)
+            size < 0x100 -> {
+                out.writeByte(0xd9)
+                out.writeByte(size)
+            }
+            size < 0x10000 -> {
+                out.writeByte(0xda)
+                out.writeShort(size)
+            }
+            else -> {
+                out.writeByte(0xdb)
+                out.writeInt(size)
+            }
+        }
+        out.write(bytes)
+    }
+
+    private fun writeInteger(out: DataOutputStream, value: Long) {
+        when (value) {
+            // positive fixint, negative fixint
+            in -32L..0x7fL -> out.writeByte(value.toInt())
+            in Byte.MIN_VALUE.toLong()..Byte.MAX_VALUE.toLong() -> {
+                out.writeByte(0xd0)
+                out.writeByte(value.toInt())
+            }
+            in Short.MIN_VALUE.toLong()..Short.MAX_VALUE.toLong() -> {
+                out.writeByte(0xd1)
+                out.writeShort(value.toInt())
+            }
+            in Int.MIN_VALUE.toLong()..Int.MAX_VALUE.toLong() -> {
+                out.writeByte(0xd2)
+                out.writeInt(value.toInt())
+            }
+            else -> {
+                out.writeByte(0xd3)
+                out.writeLong(value)
+            }
+        }
+    }
+
+    /** [pack]で書き込んだ内容を[JSONObject]や[JSONArray]に復元する. */
+    @Throws(IOException::class)
+    fun unpack(bytes: ByteArray): Any? = DataInputStream(bytes.inputStream()).use { read(it) }
+
+    private fun read(input: DataInputStream): Any? {
+        val type = input.readUnsignedByte()
+        return when {
+            type <= 0x7f -> type
+            type >= 0xe0 -> type - 0x100
+            type and 0xf0 == 0x80 -> readMap(input, type and 0x0f)
+            type and 0xf0 == 0x90 -> readArray(input, type and 0x0f)
+            type and 0xe0 == 0xa0 -> readString(input, type and 0x1f)
+            else -> when (type) {
+                0xc0 -> JSONObject.NULL
+                0xc2 -> false
+                0xc3 -> true
+                0xca -> input.readFloat().toDouble()
+                0xcb -> input.readDouble()
+                0xcc -> input.readUnsignedByte()
+                0xcd -> input.readUnsignedShort()
+                0xce -> input.readInt().toLong() and 0xffffffffL
+                0xcf -> input.readLong()
+                0xd0 -> input.readByte().toInt()
+                0xd1 -> input.readShort().toInt()
+                0xd2 -> input.readInt()
+                0xd3 -> input.readLong()
+                0xd9 -> readString(input, input.readUnsignedByte())
+                0xda -> readString(input, input.readUnsignedShort())
+                0xdb -> readString(input, input.readInt())
+                0xdc -> readArray(input, input.readUnsignedShort())
+                0xdd -> readArray(input, input.readInt())
+                0xde -> readMap(input, input.readUnsignedShort())
+                0xdf -> readMap(input, input.readInt())
+                else -> throw IOException("Unsupported MessagePack type: $type")
+            }
+        }
+    }
+
+    private fun readString(input: DataInputStream, size: Int): String {
+        val bytes = ByteArray(size)
+        input.readFully(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    private fun readArray(input: DataInputStream, size: Int): JSONArray =
+        JSONArray().apply { repeat(size) { put(read(input)) } }
+
+    private fun readMap(input: DataInputStream, size: Int): JSONObject =
+        JSONObject().apply { repeat(size) { put(read(input) as String, read(input)) } }
+}
@@ -35,6 +35,12 @@ internal object Connectivity {
         isOnlineLegacy(context)
     }
 
+    fun isUnmetered(context: Context): Boolean {
+        val manager =
+            context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
+        return runCatching { !manager.isActiveNetworkMetered }.getOrDefault(false)
+    }
+
     @Suppress("DEPRECATION")
     private fun isOnlineLegacy(context: Context): Boolean {
         val manager =
@@ -16,20 +16,26 @@
 package io.karte.android.utilities.datastore
 
 import android.annotation.SuppressLint
-import android.content.ContentValues
 import android.content.Context
 import android.content.res.Resources
 import android.database.Cursor
+import android.database.DatabaseUtils
 import android.database.sqlite.SQLiteBlobTooBigException
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteException
-import android.database.sqlite.SQLiteFullException
 import android.database.sqlite.SQLiteOpenHelper
+import android.database.sqlite.SQLiteStatement
 import android.provider.BaseColumns
 import io.karte.android.core.logger.Logger
 
 private const val LOG_TAG = "Karte.DataStore"
 
+/** SQLITE_MAX_VARIABLE_NUMBERの下限(999)を超えないように分割する単位. */
+private const val MAX_BIND_ARGS = 500
+
+/** 全行をメモリキャッシュに読み込む行数の上限. 超える場合は都度DBから読み込む. */
+private const val MAX_PRELOAD_ROWS = 1000L
+
 @SuppressLint("DiscouragedApi")
 private fun getCursorWindowSize(): Int = runCatching {
     Resources.getSystem().getInteger(
@@ -38,15 +44,50 @@ private fun getCursorWindowSize(): Int = runCatching {
     ) * 1024
 }.getOrNull() ?: 1024 * 1024
 
-private class DbHelper(context: Context) :
+/** columnsの順にバインドし、次のバインド位置を返す. */
+private fun SQLiteStatement.bindColumns(persistable: Persistable): Int {
+    val values = persistable.onPersisted()
+    var index = 1
+    persistable.contract.columns.forEach { (column, type) ->
+        val value = values[column]
+        when {
+            value == null -> bindNull(index)
+            type == Cursor.FIELD_TYPE_INTEGER -> bindLong(index, (value as Number).toLong())
+            type == Cursor.FIELD_TYPE_STRING -> bindString(index, value as String)
+            type == Cursor.FIELD_TYPE_FLOAT -> bindDouble(index, value as Double)
+            type == Cursor.FIELD_TYPE_BLOB -> bindBlob(index, value as ByteArray)
+            else -> bindNull(index)
+        }
+        index++
+    }
+    return index
+}
+
+private const val DATABASE_NAME = "krt_cache.db"
+
+private fun sqlTypeOf(type: Int?): String = when (type) {
+    Cursor.FIELD_TYPE_INTEGER -> "INTEGER"
+    Cursor.FIELD_TYPE_STRING -> "TEXT"
+    Cursor.FIELD_TYPE_FLOAT -> "REAL"
+    Cursor.FIELD_TYPE_BLOB -> "BLOB"
+    Cursor.FIELD_TYPE_NULL -> "NULL"
+    else -> ""
+}
+
+internal class DbHelper(context: Context, name: String = DATABASE_NAME) :
     SQLiteOpenHelper(
         context,
-        "krt_cache.db",
+        name,
         null,
         persistableContracts.sumOf {
             it.version
         }
     ) {
+    override fun onConfigure(db: SQLiteDatabase) {
+        // Tracker スレッドの書き込み中でも読み込みがブロックされないようにする.
+        db.enableWriteAheadLogging()
+    }
+
     override fun onCreate(db: SQLiteDatabase) {
         persistableContracts.forEach { contract ->
             createTable(db, contract)
@@ -56,23 +97,34 @@ private class DbHelper(context: Context) :
     override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
         Logger.d(LOG_TAG, "onUpgrade $oldVersion -> $newVersion")
         persistableContracts.forEach { contract ->
+            if (addColumns(db, contract)) return@forEach
             db.execSQL("DROP TABLE IF EXISTS ${contract.namespace}")
             createTable(db, contract)
         }
     }
 
+    /**
+     * 追加されたカラムが全て[Contract.columnDefaults]にあれば、既存の行を残したままカラムを追加する.
+     * テーブルが無い場合や追加できない場合は`false`を返す.
+     */
+    private fun addColumns(db: SQLiteDatabase, contract: Contract<*>): Boolean {
+        val existing = db.rawQuery("PRAGMA table_info(${contract.namespace})", null).use { cursor ->
+            val nameIndex = cursor.getColumnIndex("name")
+            generateSequence { if (cursor.moveToNext()) cursor.getString(nameIndex) else null }.toSet()
+        }
+        if (existing.isEmpty()) return false
+        val added = contract.columns.keys - existing
+        if (!contract.columnDefaults.keys.containsAll(added)) return false
+        added.forEach { column ->
+            Logger.d(LOG_TAG, "add column ${contract.namespace}.$column")
+            db.execSQL("ALTER TABLE ${contract.namespace} ADD COLUMN $column ${sqlTypeOf(contract.columns[column])}")
+            db.execSQL("UPDATE ${contract.namespace} SET $column = ${contract.columnDefaults.getValue(column)}")
+        }
+        return true
+    }
+
     private fun createTable(db: SQLiteDatabase, contract: Contract<*>) {
-        val columns = contract.columns.map {
-            val type = when (it.value) {
-                Cursor.FIELD_TYPE_INTEGER -> "INTEGER"
-                Cursor.FIELD_TYPE_STRING -> "TEXT"
-                Cursor.FIELD_TYPE_FLOAT -> "REAL"
-                Cursor.FIELD_TYPE_BLOB -> "BLOB"
-                Cursor.FIELD_TYPE_NULL -> "NULL"
-                else -> ""
-            }
-            "${it.key}  $type"
-        }.joinToString(", ")
+        val columns = contract.columns.map { "${it.key}  ${sqlTypeOf(it.value)}" }.joinToString(", ")
         Logger.d(LOG_TAG, "onCreate, $columns")
         db.execSQL(
             "CREATE TABLE ${contract.namespace}" +
@@ -87,22 +139,39 @@ private class DbHelper(context: Context) :
 
 internal class DataStore private constructor(context: Context) {
     private val dbHelper = DbHelper(context)
-    private val cache: MutableMap<Long, Persistable> = mutableMapOf()
+    private val cache = PersistableCache()
     private val subscribers = mutableSetOf<Subscriber>()
     private val windowSize = getCursorWindowSize()
 
-    private fun contentValues(persistable: Persistable): ContentValues {
-        val values = ContentValues()
-        persistable.onPersisted().forEach {
-            when (persistable.contract.columns[it.key]) {
-                Cursor.FIELD_TYPE_INTEGER -> values.put(it.key, it.value as Int)
-                Cursor.FIELD_TYPE_STRING -> values.put(it.key, it.value as String)
-                Cursor.FIELD_TYPE_FLOAT -> values.put(it.key, it.value as Double)
-                Cursor.FIELD_TYPE_BLOB -> values.put(it.key, it.value as ByteArray)
-                else -> values.putNull(it.key)
+    /** 全行を読み込んでもキャッシュに収まらなかったnamespace. 空になるまで再度読み込まない. */
+    private val oversizedNamespaces = mutableSetOf<String>()
+
+    /** コンパイル済みのステートメントをcontractと操作ごとに保持する. */
+    private val statements = mutableMapOf<Pair<String, StatementType>, SQLiteStatement>()
+
+    private enum class StatementType { Insert, Update, Delete }
+
+    private fun statement(contract: Contract<*>, type: StatementType): SQLiteStatement =
+        statements.getOrPut(contract.namespace to type) {
+            val columns = contract.columns.keys
+            val sql = when (type) {
+                StatementType.Insert ->
+                    "INSERT INTO ${contract.namespace} (${columns.joinToString(", ")})" +
+                        " VALUES (${columns.joinToString(", ") { "?" }})"
+
+                StatementType.Update ->
+                    "UPDATE ${contract.namespace} SET ${columns.joinToString(", ") { "$it = ?" }}" +
+                        " WHERE ${BaseColumns._ID} = ?"
+
+                StatementType.Delete ->
+                    "DELETE FROM ${contract.namespace} WHERE ${BaseColumns._ID} = ?"
             }
+            dbHelper.writableDatabase.compileStatement(sql)
         }
-        return values
+
+    private fun closeStatements() {
+        statements.values.forEach { runCatching { it.close() } }
+        statements.clear()
     }
 
     companion object : Persister, Transactional {
@@ -121,6 +190,8 @@ internal class DataStore private constructor(context: Context) {
                 instance.dbHelper.writableDatabase.delete(contract.namespace, null, null)
             }
             instance.cache.clear()
+            instance.oversizedNamespaces.clear()
+            instance.closeStatements()
             instance.dbHelper.close()
         }
 
@@ -142,25 +213,50 @@ internal class DataStore private constructor(context: Context) {
 
         // region Persister
         override fun put(persistable: Persistable): Long {
+            val result = try {
+                insert(persistable)
+            } catch (e: SQLiteException) {
+                -1L
+            }
+            if (result != -1L) {
+                instance.subscribers.forEach { it.notified() }
+            }
+            return result
+        }
+
+        override fun putAll(persistables: List<Persistable>): List<Long> {
+            if (persistables.isEmpty()) return listOf()
+            val results = try {
+                transaction().use { tx ->
+                    persistables.map { insert(it) }.also { tx.success() }
+                }
+            } catch (e: SQLiteException) {
+                Logger.e(LOG_TAG, "Failed to put persistables: ${e.message}", e)
+                // ロールバックされたため、途中までにキャッシュへ追加した行を破棄する
+                persistables.map { it.contract.namespace }.toSet().forEach { instance.cache.invalidate(it) }
+                persistables.forEach { it.id = -1L }
+                return persistables.map { -1L }
+            }
+            if (results.any { it != -1L }) {
+                instance.subscribers.forEach { it.notified() }
+            }
+            return results
+        }
+
+        /** 書き込みに失敗した場合は[SQLiteException]を投げ、一括書き込みのトランザクションを中断させる. */
+        private fun insert(persistable: Persistable): Long {
             if (persistable.size > instance.windowSize) {
                 Logger.e(LOG_TAG, "Too big: persistable size: ${persistable.size}.")
                 return -1L
             }
-            val result = try {
-                instance.dbHelper.writableDatabase.insert(
-                    persistable.contract.namespace,
-                    null,
-                    instance.contentValues(persistable)
-                )
-            } catch (e: SQLiteException) {
-                -1L
-            } catch (e: SQLiteFullException) {
-                -1L
+            val result = instance.statement(persistable.contract, StatementType.Insert).run {
+                clearBindings()
+                bindColumns(persistable)
+                executeInsert()
             }
             if (result != -1L) {
                 persistable.id = result
-                instance.cache[persistable.id] = persistable
-                instance.subscribers.forEach { it.notified() }
+                instance.cache.put(persistable)
             }
             return result
         }
@@ -168,19 +264,42 @@ internal class DataStore private constructor(context: Context) {
         override fun <T : Persistable> read(
             contract: Contract<T>,
             query: List<Triple<String, RelationalOperator, String>>,
-            order: String?
+            order: String?,
+            limit: Int?
         ): List<T> {
-            @Suppress("UNCHECKED_CAST")
-            val cached = instance.cache.filter { entry ->
-                query.all {
-                    it.second.run(entry.value.values[it.first].toString(), it.third)
-                }
-            }.values.toList() as? List<T>
-            if (cached?.isNotEmpty() == true) return cached
+            val cache = instance.cache
+            if (!cache.isComplete(contract.namespace)) preload(contract)
+            if (cache.isComplete(contract.namespace) && cache.canOrder(contract, order)) {
+                return cache.read(contract, query, order, limit)
+            }
+            return readFromDb(contract, query, order, limit)
+        }
+
+        /** 行数が少ない場合は全行をキャッシュに読み込み、以降の読み込みをキャッシュで済ませる. */
+        private fun preload(contract: Contract<*>) {
+            val count = DatabaseUtils.queryNumEntries(instance.dbHelper.readableDatabase, contract.namespace)
+            if (count > MAX_PRELOAD_ROWS) return
+            if (count > 0 && instance.oversizedNamespaces.contains(contract.namespace)) return
+            val evictionCount = instance.cache.evictionCount
+            val loaded = readFromDb(contract, listOf(), null, null)
+            // 読み込みに失敗した場合や上限を超えて破棄された場合は、全行を保持していない
+            if (instance.cache.evictionCount != evictionCount) {
+                instance.oversizedNamespaces.add(contract.namespace)
+            } else if (loaded.size.toLong() == count) {
+                instance.oversizedNamespaces.remove(contract.namespace)
+                instance.cache.markComplete(contract.namespace)
+            }
+        }
 
+        private fun <T : Persistable> readFromDb(
+            contract: Contract<T>,
+            query: List<Triple<String, RelationalOperator, String>>,
+            order: String?,
+            limit: Int?
+        ): List<T> {
             val selection = query.joinToString(" AND ") { "${it.first} ${it.second.value} ?" }
             val selectionArgs = query.map { it.third }.toTypedArray()
-            Logger.d(LOG_TAG, "read from db, $selection, ${selectionArgs.joinToString("")}")
+            Logger.d(LOG_TAG) { "read from db, $selection, ${selectionArgs.joinToString("")}" }
             instance.dbHelper.readableDatabase.query(
                 contract.namespace,
                 null,
@@ -188,18 +307,25 @@ internal class DataStore private constructor(context: Context) {
                 selectionArgs,
                 null,
                 null,
-                order ?: "${BaseColumns._ID} ASC"
+                order ?: "${BaseColumns._ID} ASC",
+                limit?.toString()
             ).use { cursor ->
                 val persistables = mutableListOf<T>()
                 try {
+                    val idIndex = cursor.getColumnIndex(BaseColumns._ID)
                     repeat(cursor.count) {
                         cursor.moveToPosition(it)
+                        // キャッシュはDBと一致しているため、保持しているインスタンスをそのまま使う
+                        instance.cache.get(contract, cursor.getLong(idIndex))?.let { cached ->
+                            persistables.add(cached)
+                            return@repeat
+                        }
                         val persistable =
                             contract.create(
                                 cursor.columnNames.mapIndexed { index, s ->
                                     if (index == -1) return@mapIndexed s to null
                                     when (contract.columns[s]) {
-                                        Cursor.FIELD_TYPE_INTEGER -> s to cursor.getInt(index)
+                                        Cursor.FIELD_TYPE_INTEGER -> s to cursor.getLong(index)
                                         Cursor.FIELD_TYPE_STRING -> s to cursor.getString(index)
                                         Cursor.FIELD_TYPE_FLOAT -> s to cursor.getDouble(index)
                                         Cursor.FIELD_TYPE_BLOB -> s to cursor.getBlob(index)
@@ -207,10 +333,9 @@ internal class DataStore private constructor(context: Context) {
                                     }
                                 }.toMap()
                             )
-                        val index = cursor.getColumnIndex(BaseColumns._ID)
-                        persistable.id = cursor.getLong(index)
+                        persistable.id = cursor.getLong(idIndex)
                         persistables.add(persistable)
-                        instance.cache[persistable.id] = persistable
+                        instance.cache.put(persistable)
                     }
                 } catch (e: SQLiteBlobTooBigException) {
                     // 大きすぎるデータを保持してしまった場合はall deleteする.
@@ -219,6 +344,7 @@ internal class DataStore private constructor(context: Context) {
                         "drop table:${contract.namespace}, because too big row and cannot read."
                     )
                     instance.dbHelper.writableDatabase.delete(contract.namespace, null, null)
+                    instance.cache.invalidate(contract.namespace)
                 } catch (e: Exception) {
                     // for catch CursorWindowAllocationException
                     Logger.e(LOG_TAG, "Error occurred: ${e.message}", e)
@@ -228,28 +354,73 @@ internal class DataStore private constructor(context: Context) {
         }
 
         override fun delete(persistable: Persistable) {
-            instance.cache.remove(persistable.id)
-            instance.dbHelper.writableDatabase.delete(
-                persistable.contract.namespace,
-                "${BaseColumns._ID} = ?",
-                arrayOf(persistable.id.toString())
-            )
+            instance.cache.remove(persistable)
+            try {
+                instance.statement(persistable.contract, StatementType.Delete).run {
+                    clearBindings()
+                    bindLong(1, persistable.id)
+                    executeUpdateDelete()
+                }
+            } catch (e: SQLiteException) {
+                instance.cache.invalidate(persistable.contract.namespace)
+                throw e
+            }
         }
 
         override fun update(persistable: Persistable): Int {
+            return try {
+                updateRow(persistable)
+            } catch (e: SQLiteException) {
+                // 呼び出し元で変更済みのインスタンスをキャッシュが保持しているため、DBと一致しなくなる
+                instance.cache.invalidate(persistable.contract.namespace)
+                0
+            }
+        }
+
+        /** 書き込みに失敗した場合は[SQLiteException]を投げ、一括更新のトランザクションを中断させる. */
+        private fun updateRow(persistable: Persistable): Int {
+            val result = instance.statement(persistable.contract, StatementType.Update).run {
+                clearBindings()
+                bindLong(bindColumns(persistable), persistable.id)
+                executeUpdateDelete()
+            }
+            // 既に削除されていた行をキャッシュに戻さない
+            if (result > 0) instance.cache.put(persistable) else instance.cache.remove(persistable)
+            return result
+        }
+
+        override fun updateAll(persistables: List<Persistable>): Int {
+            if (persistables.isEmpty()) return 0
+            return try {
+                transaction().use { tx ->
+                    persistables.sumOf { updateRow(it) }.also { tx.success() }
+                }
+            } catch (e: SQLiteException) {
+                Logger.e(LOG_TAG, "Failed to update persistables: ${e.message}", e)
+                // ロールバックされたため、途中までに更新したキャッシュを破棄する
+                persistables.map { it.contract.namespace }.toSet().forEach { instance.cache.invalidate(it) }
+                0
+            }
+        }
+
+        override fun deleteAll(contract: Contract<*>, ids: List<Long>) {
+            if (ids.isEmpty()) return
+            ids.forEach { instance.cache.remove(contract.namespace, it) }
             try {
-                val result = instance.dbHelper.writableDatabase.update(
-                    persistable.contract.namespace,
-                    instance.contentValues(persistable),
-                    "${BaseColumns._ID} = ?",
-                    arrayOf(persistable.id.toString())
-                )
-                instance.cache[persistable.id] = persistable
-                return result
+                transaction().use { tx ->
+                    ids.chunked(MAX_BIND_ARGS).forEach { chunk ->
+                        instance.dbHelper.writableDatabase.delete(
+                            contract.namespace,
+                            "${BaseColumns._ID} IN (${chunk.joinToString(",") { "?" }})",
+                            chunk.map { it.toString() }.toTypedArray()
+                        )
+                    }
+                    tx.success()
+                }
             } catch (e: SQLiteException) {
-            } catch (e: SQLiteFullException) {
+                instance.cache.invalidate(contract.namespace)
+                throw e
             }
-            return 0
         }
 
         fun subscribe(subscriber: Subscriber) {
@@ -21,6 +21,16 @@ internal interface Contract<T : Persistable> {
     val namespace: String
     val version: Int
     val columns: Map<String, Int>
+
+    /** メモリキャッシュで索引を作成するカラム. */
+    val indexedColumns: Set<String> get() = emptySet()
+
+    /**
+     * 後から追加したカラムと、既存の行に設定する値を表すSQLの式.
+     * [version]を上げた際に追加したカラムが全て含まれていれば、テーブルを作り直さずに既存の行を残す.
+     */
+    val columnDefaults: Map<String, String> get() = emptyMap()
+
     fun create(map: Map<String, Any?>): T
 }
 
@@ -34,14 +44,28 @@ internal abstract class Persistable {
 
 internal interface Persister {
     fun put(persistable: Persistable): Long
+
+    /**
+     * 一つのトランザクションでまとめて追加し、それぞれのidを返します. 大きすぎて追加しなかったものは-1になります.
+     * 書き込みに失敗した場合は全てロールバックし、全て-1になります.
+     */
+    fun putAll(persistables: List<Persistable>): List<Long>
+    /** [limit]を指定した場合は[order]の順で先頭から読み込みます. */
     fun <T : Persistable> read(
         contract: Contract<T>,
         query: List<Triple<String, RelationalOperator, String>>,
-        order: String? = null
+        order: String? = null,
+        limit: Int? = null
     ): List<T>
 
     fun delete(persistable: Persistable)
     fun update(persistable: Persistable): Int
+
+    /** 一つのトランザクションでまとめて更新し、更新された行数を返します. 書き込みに失敗した場合は全てロールバックし、0を返します. */
+    fun updateAll(persistables: List<Persistable>): Int
+
+    /** 一つのトランザクションで指定されたidの行をまとめて削除します. */
+    fun deleteAll(contract: Contract<*>, ids: List<Long>)
 }
 
 internal class Transaction(private val persister: Persister, private val transactional: Transactional) :
@@ -61,17 +85,26 @@ internal class Transaction(private val persister: Persister, private val transac
 
     override fun put(persistable: Persistable): Long = persister.put(persistable)
 
+    override fun putAll(persistables: List<Persistable>): List<Long> = persister.putAll(persistables)
+
     override fun <T : Persistable> read(
         contract: Contract<T>,
         query: List<Triple<String, RelationalOperator, String>>,
-        order: String?
-    ): List<T> = persister.read(contract, query, order)
+        order: String?,
+        limit: Int?
+    ): List<T> = persister.read(contract, query, order, limit)
 
     override fun delete(persistable: Persistable) {
         persister.delete(persistable)
     }
 
     override fun update(persistable: Persistable): Int = persister.update(persistable)
+
+    override fun updateAll(persistables: List<Persistable>): Int = persister.updateAll(persistables)
+
+    override fun deleteAll(contract: Contract<*>, ids: List<Long>) {
+        persister.deleteAll(contract, ids)
+    }
 }
 
 internal interface Transactional {
@@ -91,6 +124,15 @@ internal enum class RelationalOperator(val value: String) {
     },
     Unequal("!=") {
         override fun run(a: Any, b: Any): Boolean = a != b
+    },
+
+    /** 数値として比較する. */
+    LessThan("<") {
+        override fun run(a: Any, b: Any): Boolean {
+            val left = a.toString().toLongOrNull() ?: return false
+            val right = b.toString().toLongOrNull() ?: return false
+            return left < right
+        }
     };
 
     abstract fun run(a: Any, b: Any): Boolean
@@ -0,0 +1,180 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.utilities.datastore
+
+import android.database.Cursor
+import android.provider.BaseColumns
+
+/** キャッシュ全体で保持する[Persistable.size]の合計の上限. */
+private const val DEFAULT_MAX_SIZE = 1024 * 1024
+
+/**
+ * [DataStore]のメモリキャッシュ.
+ *
+ * [Contract.namespace]ごとに保持し、[Contract.indexedColumns]の値で索引を作成する.
+ * [Persistable.size]の合計が[maxSize]を超えた場合は、最も古くアクセスされたものから破棄する.
+ *
+ * DBの全行を保持している[Contract.namespace]のみ[isComplete]となり、並び順や件数を指定した読み込みにも応える.
+ * 破棄や書き込みの失敗でDBと一致しなくなった場合は、再度全行を読み込むまでDBから読み込む.
+ */
+internal class PersistableCache(private val maxSize: Int = DEFAULT_MAX_SIZE) {
+    private val entries = mutableMapOf<String, LinkedHashMap<Long, Persistable>>()
+
+    /** namespace -> column -> value -> ids */
+    private val indexes = mutableMapOf<String, MutableMap<String, MutableMap<String, MutableSet<Long>>>>()
+
+    /** 索引を正しく外すため、索引作成時点の値を保持する. namespace -> id -> column -> value */
+    private val indexedValues = mutableMapOf<String, MutableMap<Long, Map<String, String>>>()
+    private val completeNamespaces = mutableSetOf<String>()
+    private var size = 0
+
+    /** 上限を超えて破棄した回数. 読み込み中に破棄されたかどうかの判定に使う. */
+    var evictionCount = 0L
+        private set
+
+    /** [namespace]のDBの全行を保持しているかどうか. */
+    fun isComplete(namespace: String): Boolean = completeNamespaces.contains(namespace)
+
+    /** [namespace]のDBの全行を読み込んだことを記録する. */
+    fun markComplete(namespace: String) {
+        completeNamespaces.add(namespace)
+    }
+
+    /** DBと一致しなくなった[namespace]を破棄する. */
+    fun invalidate(namespace: String) {
+        entries[namespace]?.keys?.toList()?.forEach { remove(namespace, it) }
+        completeNamespaces.remove(namespace)
+    }
+
+    fun put(persistable: Persistable) {
+        val namespace = persistable.contract.namespace
+        remove(namespace, persistable.id)
+
+        entries.getOrPut(namespace) { LinkedHashMap(16, 0.75f, true) }[persistable.id] = persistable
+        val values = persistable.contract.indexedColumns.associateWith { persistable.values[it].toString() }
+        val index = indexes.getOrPut(namespace) { mutableMapOf() }
+        values.forEach { (column, value) ->
+            index.getOrPut(column) { mutableMapOf() }.getOrPut(value) { mutableSetOf() }.add(persistable.id)
+        }
+        indexedValues.getOrPut(namespace) { mutableMapOf() }[persistable.id] = values
+        size += persistable.size
+        trimToSize()
+    }
+
+    fun remove(persistable: Persistable) {
+        remove(persistable.contract.namespace, persistable.id)
+    }
+
+    fun remove(namespace: String, id: Long) {
+        val removed = entries[namespace]?.remove(id) ?: return
+        indexedValues[namespace]?.remove(id)?.forEach { (column, value) ->
+            indexes[namespace]?.get(column)?.get(value)?.remove(id)
+        }
+        size -= removed.size
+    }
+
+    /** [id]のものを保持していれば返す. */
+    fun <T : Persistable> get(contract: Contract<T>, id: Long): T? {
+        @Suppress("UNCHECKED_CAST")
+        return entries[contract.namespace]?.get(id) as T?
+    }
+
+    /** [order]をキャッシュ上で解釈できるかどうか. */
+    fun canOrder(contract: Contract<*>, order: String?): Boolean = comparatorOf(contract, order) != null
+
+    /**
+     * [query]に一致するものを[order]の順で最大[limit]件返す.
+     * [order]は`column [ASC|DESC]`をカンマで区切ったもので、[canOrder]で解釈できないものは[BaseColumns._ID]の昇順とする.
+     */
+    fun <T : Persistable> read(
+        contract: Contract<T>,
+        query: List<Triple<String, RelationalOperator, String>>,
+        order: String? = null,
+        limit: Int? = null
+    ): List<T> {
+        val namespace = contract.namespace
+        val cached = entries[namespace] ?: return emptyList()
+        val index = indexes[namespace]
+        // 大小比較は索引では扱わず、個別に評価する
+        val (indexed, others) = query.partition {
+            contract.indexedColumns.contains(it.first) && it.second != RelationalOperator.LessThan
+        }
+
+        var ids: Set<Long>? = null
+        indexed.forEach { (column, operator, value) ->
+            val matched = index?.get(column)?.get(value) ?: emptySet<Long>()
+            ids = when (operator) {
+                RelationalOperator.Equal -> ids?.intersect(matched) ?: matched
+                RelationalOperator.Unequal -> (ids ?: cached.keys).subtract(matched)
+                RelationalOperator.LessThan -> ids
+            }
+        }
+
+        val comparator = comparatorOf(contract, order) ?: compareBy<Persistable> { it.id }
+        // アクセス順のLinkedHashMapは読み出しで順序が変わるため、走査はコピーに対して行う
+        val matched = (ids ?: cached.keys.toList())
+            .mapNotNull { cached[it] }
+            .filter { persistable ->
+                others.all { it.second.run(persistable.values[it.first].toString(), it.third) }
+            }
+            .sortedWith(comparator)
+        @Suppress("UNCHECKED_CAST")
+        return (if (limit != null) matched.take(limit) else matched) as List<T>
+    }
+
+    fun clear() {
+        entries.clear()
+        indexes.clear()
+        indexedValues.clear()
+        completeNamespaces.clear()
+        size = 0
+    }
+
+    private fun comparatorOf(contract: Contract<*>, order: String?): Comparator<Persistable>? {
+        val terms = (order ?: "${BaseColumns._ID} ASC").split(",").map { it.trim().split(Regex("\\s+")) }
+        return terms.map { term ->
+            val column = term[0]
+            val isDescending = when {
+                term.size == 1 || term.size == 2 && term[1].equals("ASC", true) -> false
+                term.size == 2 && term[1].equals("DESC", true) -> true
+                else -> return null
+            }
+            val selector: (Persistable) -> Comparable<*>? = when {
+                column == BaseColumns._ID -> { persistable -> persistable.id }
+                contract.columns[column] == Cursor.FIELD_TYPE_INTEGER ->
+                    { persistable -> (persistable.values[column] as? Number)?.toLong() }
+
+                contract.columns[column] == Cursor.FIELD_TYPE_STRING ->
+                    { persistable -> persistable.values[column] as? String }
+
+                else -> return null
+            }
+            if (isDescending) compareByDescending(selector) else compareBy(selector)
+        }.reduce { acc, comparator -> acc.then(comparator) }
+    }
+
+    private fun trimToSize() {
+        while (size > maxSize) {
+            val (namespace, eldest) = entries
+                .filterValues { it.isNotEmpty() }
+                .map { it.key to it.value.values.first() }
+                .firstOrNull() ?: break
+            remove(namespace, eldest.id)
+            completeNamespaces.remove(namespace)
+            evictionCount++
+        }
+    }
+}
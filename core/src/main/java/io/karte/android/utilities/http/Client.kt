@@ -15,82 +15,47 @@
 //
 package io.karte.android.utilities.http
 
+import io.karte.android.KarteApp
+import io.karte.android.core.config.ExperimentalConfig
+import io.karte.android.core.config.HttpEngineType
 import io.karte.android.core.logger.Logger
-import io.karte.android.utilities.asString
-import io.karte.android.utilities.gzip
-import java.io.BufferedInputStream
-import java.io.ByteArrayOutputStream
-import java.io.FileNotFoundException
 import java.io.IOException
-import java.net.HttpURLConnection
-import java.net.URL
 
 private const val LOG_TAG = "Karte.HttpClient"
 
 /** サーバにHTTPリクエストを送信するオブジェクト。 */
 object Client {
+    private val engines = mutableMapOf<HttpEngineType, HttpEngine>()
+
+    /** 現在の送信処理における接続の利用状況を返します。 */
+    val connectionStats: ConnectionStats
+        get() = engine().stats
 
     /** [Request]インスタンスの送信を実行します。 */
     @Throws(IOException::class)
     fun execute(request: Request<*>): Response {
-        val url: URL
-        val conn: HttpURLConnection
         try {
-            url = URL(request.url)
-            conn = url.openConnection() as HttpURLConnection
-            try {
-                conn.readTimeout = request.timeout
-                conn.connectTimeout = request.timeout
-
-                for ((key, value) in request.headers) {
-                    conn.setRequestProperty(key, value)
-                }
-                conn.doInput = true
-                conn.useCaches = false
-                conn.requestMethod = request.method
-                if (request.hasBody) {
-                    conn.doOutput = true
-                    var written = false
-                    if (request is JSONRequest && request.gzip) {
-                        val tmpStream = ByteArrayOutputStream()
-                        request.writeBody(tmpStream)
-                        gzip(tmpStream.toString("UTF-8"))?.let {
-                            conn.setRequestProperty(HEADER_CONTENT_ENCODING, CONTENT_ENCODING_GZIP)
-                            conn.outputStream.write(it)
-                            written = true
-                        }
-                    }
-                    if (!written) {
-                        request.writeBody(conn.outputStream)
-                    }
-                }
+            return engine().execute(request)
+        } catch (e: IOException) {
+            Logger.e(LOG_TAG, "Failed to send request.", e)
+            throw e
+        }
+    }
 
-                conn.connect()
-                if (conn.responseCode > 299) {
-                    Logger.e(LOG_TAG, "Error response!")
-                    conn.errorStream.use {
-                        return Response(conn.responseCode, conn.headerFields, it.asString())
-                    }
-                }
-                BufferedInputStream(conn.inputStream).use {
-                    return Response(conn.responseCode, conn.headerFields, it.asString())
-                }
-            } catch (ignore: FileNotFoundException) {
-                // come here when response code >= 400
-                // L176: https://android.googlesource.com/platform/libcore/+/757afaa7afe96791a3cc612c9e3c4597a7321c7e/luni/src/main/java/libcore/net/http/HttpURLConnectionImpl.java
-                conn.errorStream.use {
-                    return Response(conn.responseCode, conn.headerFields, it.asString())
-                }
-            } catch (e: IOException) {
-                Logger.e(LOG_TAG, "Failed to send request.", e)
+    @Synchronized
+    internal fun engine(): HttpEngine {
+        val type = (KarteApp.self.config as? ExperimentalConfig)?.httpEngine ?: HttpEngineType.DEFAULT
+        return engines.getOrPut(type) { create(type) }
+    }
 
-                throw e
-            } finally {
-                conn.disconnect()
+    private fun create(type: HttpEngineType): HttpEngine {
+        if (type == HttpEngineType.OKHTTP) {
+            try {
+                return OkHttpEngine()
+            } catch (e: NoClassDefFoundError) {
+                Logger.w(LOG_TAG, "Not found package: okhttp3. Use HttpURLConnection instead.")
             }
-        } catch (e: IOException) {
-            Logger.e(LOG_TAG, "Can't construct track url.", e)
-            throw e
         }
+        return UrlConnectionEngine()
     }
 }
@@ -0,0 +1,207 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.utilities.http
+
+import io.karte.android.core.logger.Logger
+import io.karte.android.tracking.Metric
+import io.karte.android.tracking.MetricsRecorder
+import io.karte.android.utilities.asString
+import java.io.BufferedInputStream
+import java.io.FileNotFoundException
+import java.io.FilterOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.net.HttpURLConnection
+import java.net.InetAddress
+import java.net.Socket
+import java.net.URL
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.GZIPOutputStream
+import javax.net.ssl.HttpsURLConnection
+import javax.net.ssl.SSLSocketFactory
+
+private const val LOG_TAG = "Karte.HttpEngine"
+internal const val GZIP_BUFFER_SIZE = 8192
+
+/**
+ * HTTP接続の利用状況を表すクラスです。
+ *
+ * @property[requests] 送信したリクエスト数
+ * @property[newConnections] 新たに接続(TLSハンドシェイク)を行った数
+ */
+data class ConnectionStats(val requests: Long, val newConnections: Long) {
+    /** 既存の接続を再利用したリクエスト数 */
+    val reusedConnections: Long
+        get() = (requests - newConnections).coerceAtLeast(0)
+}
+
+/** [Client]が利用する送信処理の実装. */
+internal interface HttpEngine {
+    val stats: ConnectionStats
+
+    @Throws(IOException::class)
+    fun execute(request: Request<*>): Response
+}
+
+/**
+ * [HttpURLConnection]による実装.
+ *
+ * レスポンスを読み切った後に`disconnect`しないことで、OS側のコネクションプールによるkeep-aliveを有効にする.
+ * 新規接続数は[SSLSocketFactory]の呼び出しで数えるため、計測が有効な間のHTTPSの接続のみ計測される.
+ * 再利用数が正しく求まるように、リクエスト数も同じ条件で数える.
+ */
+internal class UrlConnectionEngine : HttpEngine {
+    private val requests = AtomicLong()
+    private val newConnections = AtomicLong()
+
+    @Volatile
+    private var socketFactory: CountingSSLSocketFactory? = null
+
+    override val stats: ConnectionStats
+        get() = ConnectionStats(requests.get(), newConnections.get())
+
+    @Throws(IOException::class)
+    override fun execute(request: Request<*>): Response {
+        val conn = URL(request.url).openConnection() as HttpURLConnection
+        try {
+            if (conn is HttpsURLConnection && MetricsRecorder.isEnabled) {
+                conn.sslSocketFactory = countingSocketFactoryOf(conn.sslSocketFactory)
+                requests.incrementAndGet()
+            }
+            conn.readTimeout = request.timeout
+            conn.connectTimeout = request.timeout
+
+            for ((key, value) in request.headers) {
+                conn.setRequestProperty(key, value)
+            }
+            conn.doInput = true
+            conn.useCaches = false
+            conn.requestMethod = request.method
+            if (request.hasBody) {
+                conn.doOutput = true
+                if (request is JSONRequest && request.gzip) {
+                    // bodyを一度メモリに展開せず、圧縮しながら送信する
+                    conn.setRequestProperty(HEADER_CONTENT_ENCODING, CONTENT_ENCODING_GZIP)
+                    conn.setChunkedStreamingMode(0)
+                    gzipStreamOf(conn.outputStream).use {
+                        request.writeBody(it)
+                    }
+                } else {
+                    request.writeBody(conn.outputStream)
+                }
+            }
+
+            conn.connect()
+            if (conn.responseCode > 299) {
+                Logger.e(LOG_TAG, "Error response!")
+                conn.errorStream.use {
+                    return Response(conn.responseCode, conn.headerFields, it.asString())
+                }
+            }
+            BufferedInputStream(conn.inputStream).use {
+                return Response(conn.responseCode, conn.headerFields, it.asString())
+            }
+        } catch (ignore: FileNotFoundException) {
+            // come here when response code >= 400
+            // L176: https://android.googlesource.com/platform/libcore/+/757afaa7afe96791a3cc612c9e3c4597a7321c7e/luni/src/main/java/libcore/net/http/HttpURLConnectionImpl.java
+            conn.errorStream.use {
+                return Response(conn.responseCode, conn.headerFields, it.asString())
+            }
+        } catch (e: IOException) {
+            // 壊れた接続がプールに戻らないように破棄する
+            conn.disconnect()
+            throw e
+        }
+    }
+
+    /**
+     * [delegate]を包んだ計測用の[SSLSocketFactory]を返す.
+     * プールのキーとなるため、[delegate]が変わらない限り同じインスタンスを返す.
+     */
+    private fun countingSocketFactoryOf(delegate: SSLSocketFactory): SSLSocketFactory {
+        socketFactory?.takeIf { it.delegate === delegate }?.let { return it }
+        return CountingSSLSocketFactory(delegate, newConnections).also { socketFactory = it }
+    }
+}
+
+/** 圧縮しながら書き込むストリームを返す. 計測が有効な場合は圧縮前後のバイト数を数える. */
+internal fun gzipStreamOf(outputStream: OutputStream): GZIPOutputStream =
+    if (MetricsRecorder.isEnabled) {
+        MeasuredGZIPOutputStream(CountingOutputStream(outputStream))
+    } else {
+        GZIPOutputStream(outputStream, GZIP_BUFFER_SIZE)
+    }
+
+/** 書き込まれたバイト数を数える[OutputStream]. */
+private class CountingOutputStream(out: OutputStream) : FilterOutputStream(out) {
+    var count = 0L
+        private set
+
+    override fun write(b: Int) {
+        out.write(b)
+        count++
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        out.write(b, off, len)
+        count += len
+    }
+}
+
+/** 圧縮の完了時に、圧縮前後のバイト数を記録する[GZIPOutputStream]. */
+private class MeasuredGZIPOutputStream(private val compressed: CountingOutputStream) :
+    GZIPOutputStream(compressed, GZIP_BUFFER_SIZE) {
+    private var raw = 0L
+    private var isRecorded = false
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        super.write(b, off, len)
+        raw += len
+    }
+
+    override fun finish() {
+        super.finish()
+        if (isRecorded) return
+        isRecorded = true
+        MetricsRecorder.count(Metric.BytesBeforeGzip, raw)
+        MetricsRecorder.count(Metric.BytesAfterGzip, compressed.count)
+    }
+}
+
+/** 新規に作成されたソケット数を数える[SSLSocketFactory]. */
+private class CountingSSLSocketFactory(
+    val delegate: SSLSocketFactory,
+    private val created: AtomicLong
+) : SSLSocketFactory() {
+    override fun getDefaultCipherSuites(): Array<String> = delegate.defaultCipherSuites
+
+    override fun getSupportedCipherSuites(): Array<String> = delegate.supportedCipherSuites
+
+    override fun createSocket(s: Socket?, host: String?, port: Int, autoClose: Boolean): Socket =
+        delegate.createSocket(s, host, port, autoClose).also { created.incrementAndGet() }
+
+    override fun createSocket(host: String?, port: Int): Socket =
+        delegate.createSocket(host, port).also { created.incrementAndGet() }
+
+    override fun createSocket(host: String?, port: Int, localHost: InetAddress?, localPort: Int): Socket =
+        delegate.createSocket(host, port, localHost, localPort).also { created.incrementAndGet() }
+
+    override fun createSocket(host: InetAddress?, port: Int): Socket =
+        delegate.createSocket(host, port).also { created.incrementAndGet() }
+
+    override fun createSocket(address: InetAddress?, port: Int, localAddress: InetAddress?, localPort: Int): Socket =
+        delegate.createSocket(address, port, localAddress, localPort).also { created.incrementAndGet() }
+}
@@ -0,0 +1,104 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.utilities.http
+
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.EventListener
+import okhttp3.Headers.Companion.toHeaders
+import okhttp3.MediaType
+import okhttp3.MediaType.Companion.toMediaTypeOrNull
+import okhttp3.OkHttpClient
+import okhttp3.RequestBody
+import okio.BufferedSink
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * OkHttpによる実装.
+ *
+ * OkHttpは依存に含めていないため、利用側が導入している場合のみ使用できる.
+ * 新規接続数は[EventListener.connectStart]、リクエスト数は[EventListener.connectionAcquired]で数える.
+ */
+internal class OkHttpEngine : HttpEngine {
+    private val requests = AtomicLong()
+    private val newConnections = AtomicLong()
+
+    private val client = OkHttpClient.Builder()
+        .retryOnConnectionFailure(false)
+        .eventListener(object : EventListener() {
+            override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+                newConnections.incrementAndGet()
+            }
+
+            override fun connectionAcquired(call: Call, connection: Connection) {
+                requests.incrementAndGet()
+            }
+        })
+        .build()
+
+    override val stats: ConnectionStats
+        get() = ConnectionStats(requests.get(), newConnections.get())
+
+    @Throws(IOException::class)
+    override fun execute(request: Request<*>): Response {
+        val timeout = request.timeout.toLong()
+        val call = client.newBuilder()
+            .connectTimeout(timeout, TimeUnit.MILLISECONDS)
+            .readTimeout(timeout, TimeUnit.MILLISECONDS)
+            .writeTimeout(timeout, TimeUnit.MILLISECONDS)
+            .build()
+            .newCall(build(request))
+        call.execute().use { response ->
+            return Response(
+                response.code,
+                response.headers.toMultimap(),
+                response.body?.string() ?: ""
+            )
+        }
+    }
+
+    private fun build(request: Request<*>): okhttp3.Request {
+        val builder = okhttp3.Request.Builder()
+            .url(request.url)
+            .headers(request.headers.toHeaders())
+        val body = if (request.hasBody) StreamingBody(request) else null
+        if (request is JSONRequest && request.gzip) {
+            builder.header(HEADER_CONTENT_ENCODING, CONTENT_ENCODING_GZIP)
+        }
+        return builder.method(request.method, body).build()
+    }
+
+    /** bodyを一度メモリに展開せず、送信時に書き込む. */
+    private class StreamingBody(private val request: Request<*>) : RequestBody() {
+        override fun contentType(): MediaType? = request.headers[HEADER_CONTENT_TYPE]?.toMediaTypeOrNull()
+
+        override fun contentLength(): Long = -1
+
+        override fun writeTo(sink: BufferedSink) {
+            if (request is JSONRequest && request.gzip) {
+                val gzip = gzipStreamOf(sink.outputStream())
+                request.writeBody(gzip)
+                gzip.finish()
+            } else {
+                request.writeBody(sink.outputStream())
+            }
+        }
+    }
+}
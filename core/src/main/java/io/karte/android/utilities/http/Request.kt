@@ -44,6 +44,12 @@ const val CONTENT_TYPE_OCTET_STREAM = "application/octet-stream"
 
 /** [HEADER_CONTENT_TYPE] value `application/json`. */
 const val CONTENT_TYPE_JSON = "application/json"
+
+/** [HEADER_CONTENT_TYPE] value `application/msgpack`. */
+internal const val CONTENT_TYPE_MSGPACK = "application/msgpack"
+
+/** 送信したbodyの形式にサーバーが対応していない場合のステータスコード. */
+internal const val STATUS_UNSUPPORTED_MEDIA_TYPE = 415
 private const val CRLF = "\r\n"
 
 /** HTTP Request method, `POST`. */
@@ -63,7 +69,7 @@ abstract class Request<T> internal constructor(
 ) {
     abstract var body: T?
     internal var timeout: Int = 10000
-    internal val hasBody: Boolean
+    internal open val hasBody: Boolean
         get() = body != null
 
     @Throws(IOException::class)
@@ -0,0 +1,56 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.utilities.http
+
+import java.text.SimpleDateFormat
+import java.util.Locale
+import java.util.TimeZone
+
+internal const val HEADER_RETRY_AFTER = "Retry-After"
+internal const val STATUS_TOO_MANY_REQUESTS = 429
+
+private val rateLimitRemainingHeaders = listOf("RateLimit-Remaining", "X-RateLimit-Remaining")
+private val rateLimitResetHeaders = listOf("RateLimit-Reset", "X-RateLimit-Reset")
+
+/** これより大きいリセット値はepoch秒とみなす. */
+private const val EPOCH_SECONDS_THRESHOLD = 1_000_000_000L
+
+/** ヘッダ名の大文字小文字を区別せずに最初の値を返す. */
+internal fun Response.header(name: String): String? =
+    headers.entries.firstOrNull { it.key?.equals(name, ignoreCase = true) == true }?.value?.firstOrNull()
+
+/**
+ * サーバーが指定した再送までの待機時間(ms)を返す. 指定がない場合は`null`.
+ *
+ * `Retry-After`(秒数またはHTTP-date)を優先し、無い場合は残数が0の時のみ`RateLimit-Reset`を参照する.
+ */
+internal fun Response.retryAfterMs(now: Long): Long? {
+    header(HEADER_RETRY_AFTER)?.trim()?.let { value ->
+        value.toLongOrNull()?.let { return (it * 1000).coerceAtLeast(0) }
+        return parseHttpDate(value)?.let { (it - now).coerceAtLeast(0) }
+    }
+    val remaining = rateLimitRemainingHeaders.firstNotNullOfOrNull { header(it) }?.trim()?.toLongOrNull()
+    if (remaining != 0L) return null
+    val reset = rateLimitResetHeaders.firstNotNullOfOrNull { header(it) }?.trim()?.toLongOrNull() ?: return null
+    return if (reset > EPOCH_SECONDS_THRESHOLD) (reset * 1000 - now).coerceAtLeast(0) else reset * 1000
+}
+
+private fun parseHttpDate(value: String): Long? = runCatching {
+    SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US)
+        .apply { timeZone = TimeZone.getTimeZone("GMT") }
+        .parse(value)
+        ?.time
+}.getOrNull()
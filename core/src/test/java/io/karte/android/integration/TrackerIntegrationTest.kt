@@ -725,6 +725,30 @@ class TrackerIntegrationTest {
                 .that(screen.getString("height"))
                 .isEqualTo("470")
         }
+
+        @Test
+        fun 取得したjsonを変更しても送信内容に影響しないこと() {
+            enqueueSuccessResponse()
+            KarteApp.self.appInfo?.json?.put("version_name", "modified")
+            Tracker.view("view1")
+            proceedBufferedCall()
+
+            val request = server.takeRequest()
+            val bodyAppInfo = JSONObject(request.parseBody()).getJSONObject("app_info")
+            assertThat(bodyAppInfo.getString("version_name")).isEqualTo("1.0.0")
+        }
+
+        @Test
+        fun モジュール情報の更新で新しいバージョンに差し替わること() {
+            val appInfo = KarteApp.self.appInfo!!
+            val before = appInfo.snapshot
+
+            appInfo.updateModuleInfo()
+
+            assertThat(appInfo.snapshot.version).isEqualTo(before.version + 1)
+            assertThat(appInfo.snapshot).isNotSameInstanceAs(before)
+            assertThat(appInfo.snapshot.text).isEqualTo(before.text)
+        }
     }
 
     class RenewVisitorId : TrackerTestCase() {
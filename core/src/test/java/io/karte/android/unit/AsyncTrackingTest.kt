@@ -0,0 +1,96 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.core.config.ExperimentalConfig
+import io.karte.android.test_lib.InternalUtils
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.test_lib.proceedBufferedCall
+import io.karte.android.test_lib.setupKarteApp
+import io.karte.android.test_lib.tearDownKarteApp
+import io.karte.android.test_lib.toList
+import io.karte.android.tracking.Event
+import io.karte.android.tracking.Tracker
+import io.karte.android.tracking.TrackerDelegate
+import io.karte.android.tracking.client.TrackRequest
+import io.karte.android.utilities.connectivity.Connectivity
+import io.karte.android.utilities.http.Client
+import io.karte.android.utilities.http.Response
+import io.mockk.every
+import io.mockk.mockkObject
+import io.mockk.unmockkObject
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+@Suppress("NonAsciiCharacters")
+class AsyncTrackingTest : RobolectricTestCase() {
+    private val interceptedThreads = mutableListOf<String>()
+
+    @Before
+    fun init() {
+        setupKarteApp(configBuilder = ExperimentalConfig.Builder().asyncTracking(true))
+        mockkObject(Client, Connectivity)
+        every { Client.execute(any()) } returns Response(200, hashMapOf(), "{response:{}}")
+        every { Connectivity.isOnline(any()) } returns true
+        Tracker.setDelegate(object : TrackerDelegate {
+            override fun intercept(event: Event): Event {
+                interceptedThreads.add(Thread.currentThread().name)
+                event.values.put("intercepted", true)
+                return event
+            }
+        })
+    }
+
+    @After
+    fun tearDown() {
+        Tracker.setDelegate(null)
+        tearDownKarteApp()
+        unmockkObject(Client, Connectivity)
+    }
+
+    @Test
+    fun 呼び出し元のスレッドではイベントが加工されないこと() {
+        Tracker.track("buy", mapOf("price" to 100))
+
+        assertThat(interceptedThreads).isEmpty()
+    }
+
+    @Test
+    fun Dispatcherのスレッドで加工されて送信されること() {
+        val requests = mutableListOf<TrackRequest>()
+        every { Client.execute(capture(requests)) } returns Response(200, hashMapOf(), "{response:{}}")
+
+        Tracker.track("buy", mapOf("price" to 100))
+        proceedBufferedCall()
+
+        // setup時に発生したイベントも含め、全てDispatcherのスレッドで加工される
+        assertThat(interceptedThreads.toSet()).containsExactly(InternalUtils.threadName)
+        val event = requests
+            .flatMap { it.json.getJSONArray("events").toList() }
+            .first { it.getString("event_name") == "buy" }
+        assertThat(event.getJSONObject("values").getBoolean("intercepted")).isTrue()
+    }
+
+    @Test
+    fun viewイベントのpv_idは呼び出し時点で更新されること() {
+        val before = InternalUtils.karteApp.pvId
+        Tracker.view("top")
+
+        assertThat(InternalUtils.karteApp.pvId).isNotEqualTo(before)
+    }
+}
@@ -0,0 +1,103 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import android.app.job.JobScheduler
+import android.content.Context
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.KarteApp
+import io.karte.android.core.config.ExperimentalConfig
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.test_lib.proceedBufferedCall
+import io.karte.android.test_lib.setupKarteApp
+import io.karte.android.test_lib.tearDownKarteApp
+import io.karte.android.tracking.Tracker
+import io.karte.android.tracking.queue.FLUSH_JOB_ID
+import io.karte.android.utilities.connectivity.Connectivity
+import io.karte.android.utilities.http.Client
+import io.karte.android.utilities.http.Response
+import io.mockk.every
+import io.mockk.mockkObject
+import io.mockk.unmockkObject
+import io.mockk.verify
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+@Suppress("NonAsciiCharacters")
+class BackgroundFlushTest : RobolectricTestCase() {
+    private val jobScheduler by lazy {
+        application.getSystemService(Context.JOB_SCHEDULER_SERVICE) as JobScheduler
+    }
+
+    @Before
+    fun init() {
+        mockkObject(Client, Connectivity)
+        every { Client.execute(any()) } returns Response(200, hashMapOf(), "{response:{}}")
+        every { Connectivity.isOnline(any()) } returns true
+    }
+
+    @After
+    fun tearDown() {
+        tearDownKarteApp()
+        unmockkObject(Client, Connectivity)
+    }
+
+    @Test
+    fun 有効な場合はネットワーク接続を条件にジョブが予約されること() {
+        every { Client.execute(any()) } returns Response(500, hashMapOf(), "")
+        setupKarteApp(configBuilder = ExperimentalConfig.Builder().backgroundFlush(true))
+        Tracker.track("buy")
+        KarteApp.self.tracker?.scheduleFlush()
+        proceedBufferedCall()
+
+        val job = jobScheduler.allPendingJobs.single { it.id == FLUSH_JOB_ID }
+        assertThat(job.isRequireNetwork).isTrue()
+    }
+
+    @Test
+    fun 送信待ちのイベントが無い場合はジョブが予約されないこと() {
+        setupKarteApp(configBuilder = ExperimentalConfig.Builder().backgroundFlush(true))
+        proceedBufferedCall()
+        KarteApp.self.tracker?.scheduleFlush()
+        proceedBufferedCall()
+
+        assertThat(jobScheduler.allPendingJobs.none { it.id == FLUSH_JOB_ID }).isTrue()
+    }
+
+    @Test
+    fun 無効な場合はジョブが予約されないこと() {
+        setupKarteApp()
+        Tracker.track("buy")
+        KarteApp.self.tracker?.scheduleFlush()
+        proceedBufferedCall()
+
+        assertThat(jobScheduler.allPendingJobs.none { it.id == FLUSH_JOB_ID }).isTrue()
+    }
+
+    @Test
+    fun flushで送信待ちのイベントが送信されること() {
+        setupKarteApp(configBuilder = ExperimentalConfig.Builder().backgroundFlush(true))
+        var hasPending: Boolean? = null
+
+        Tracker.track("buy")
+        KarteApp.self.tracker?.flush { hasPending = it }
+        proceedBufferedCall()
+
+        verify(atLeast = 1) { Client.execute(any()) }
+        assertThat(hasPending).isFalse()
+    }
+}
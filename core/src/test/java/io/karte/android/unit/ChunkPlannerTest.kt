@@ -0,0 +1,77 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.tracking.CustomEventName
+import io.karte.android.tracking.Event
+import io.karte.android.tracking.queue.ChunkPlanner
+import io.karte.android.tracking.queue.EventRecord
+import org.junit.Test
+
+@Suppress("NonAsciiCharacters")
+class ChunkPlannerTest : RobolectricTestCase() {
+    private fun records(count: Int, value: String = "") = List(count) {
+        EventRecord("visitor_id", "original_pv_id", "pv_id", Event(CustomEventName("buy"), mapOf("value" to value)))
+    }
+
+    @Test
+    fun 初期状態では10件ずつ分割されること() {
+        val chunks = ChunkPlanner().plan(records(25))
+        assertThat(chunks.map { it.size }).containsExactly(10, 10, 5).inOrder()
+    }
+
+    @Test
+    fun サイズの上限を超えないように分割されること() {
+        val records = records(4, "x".repeat(1000))
+        val chunks = ChunkPlanner(maxBytes = records.first().size * 2).plan(records)
+        assertThat(chunks.map { it.size }).containsExactly(2, 2).inOrder()
+    }
+
+    @Test
+    fun 上限を超える1件はそのまま1リクエストになること() {
+        val records = records(2, "x".repeat(1000))
+        val chunks = ChunkPlanner(maxBytes = 1).plan(records)
+        assertThat(chunks.map { it.size }).containsExactly(1, 1).inOrder()
+    }
+
+    @Test
+    fun 高速な従量制でない回線で成功すると上限まで増えること() {
+        val planner = ChunkPlanner(maxEvents = 30)
+        planner.onSuccess(100, true)
+        assertThat(planner.eventLimit).isEqualTo(20)
+        planner.onSuccess(100, true)
+        assertThat(planner.eventLimit).isEqualTo(30)
+    }
+
+    @Test
+    fun 従量制回線や低速な場合は増えないこと() {
+        val planner = ChunkPlanner()
+        planner.onSuccess(100, false)
+        planner.onSuccess(5000, true)
+        assertThat(planner.eventLimit).isEqualTo(10)
+    }
+
+    @Test
+    fun 失敗すると半分に減ること() {
+        val planner = ChunkPlanner()
+        planner.onFailure()
+        assertThat(planner.eventLimit).isEqualTo(5)
+        repeat(5) { planner.onFailure() }
+        assertThat(planner.eventLimit).isEqualTo(1)
+    }
+}
@@ -16,6 +16,7 @@
 package io.karte.android.unit
 
 import com.google.common.truth.Truth.assertThat
+import io.karte.android.core.repository.PreferenceRepository
 import io.karte.android.test_lib.RobolectricTestCase
 import io.karte.android.tracking.queue.CircuitBreaker
 import io.karte.android.tracking.queue.getCurrentTimeMillisCB
@@ -79,4 +80,25 @@ class CircuitBreakerTest : RobolectricTestCase() {
         assertThat(circuitBreaker.canRequest).isTrue()
         unmockkStatic("io.karte.android.tracking.queue.CircuitBreakerKt")
     }
+
+    @Test
+    fun 状態がエンドポイントごとに引き継がれること() {
+        val repository = PreferenceRepository(application, "circuit_breaker_test")
+        CircuitBreaker(3, 300000L, repository, "track").apply { repeat(3) { recordFailure() } }
+
+        assertThat(CircuitBreaker(3, 300000L, repository, "track").canRequest).isFalse()
+        assertThat(CircuitBreaker(3, 300000L, repository, "ingest").canRequest).isTrue()
+    }
+
+    @Test
+    fun 時刻が巻き戻された場合は制限が解除されること() {
+        mockkStatic("io.karte.android.tracking.queue.CircuitBreakerKt")
+        every { getCurrentTimeMillisCB() } returns 300000
+        repeat(3) { circuitBreaker.recordFailure() }
+        assertThat(circuitBreaker.canRequest).isFalse()
+
+        every { getCurrentTimeMillisCB() } returns 1000
+        assertThat(circuitBreaker.canRequest).isTrue()
+        unmockkStatic("io.karte.android.tracking.queue.CircuitBreakerKt")
+    }
 }
@@ -0,0 +1,207 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import android.provider.BaseColumns
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.tracking.CustomEventName
+import io.karte.android.tracking.Event
+import io.karte.android.tracking.queue.EventRecord
+import io.karte.android.utilities.datastore.Contract
+import io.karte.android.utilities.datastore.DataStore
+import io.karte.android.utilities.datastore.DbHelper
+import io.karte.android.utilities.datastore.Persistable
+import io.karte.android.utilities.datastore.RelationalOperator
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+/** テーブルを作成しないため、書き込みが必ず失敗するcontract. */
+private object MissingContract : Contract<MissingRecord> {
+    override val namespace = "missing"
+    override val version = 1
+    override val columns = mapOf("name" to Cursor.FIELD_TYPE_STRING)
+    override fun create(map: Map<String, Any?>) = MissingRecord()
+}
+
+private class MissingRecord : Persistable() {
+    override val contract = MissingContract
+    override fun onPersisted(): Map<String, Any?> = mapOf("name" to "missing")
+    override val size = 0
+}
+
+@Suppress("NonAsciiCharacters")
+class DataStoreTest : RobolectricTestCase() {
+    private fun record(name: String): EventRecord =
+        EventRecord("visitor_id", "original_pv_id", "pv_id", Event(CustomEventName(name), values = null))
+
+    private fun readAll(): List<EventRecord> = DataStore.read(EventRecord.EventContract, listOf())
+
+    @Before
+    fun init() {
+        DataStore.setup(application, EventRecord.EventContract)
+    }
+
+    @After
+    fun tearDown() {
+        DataStore.teardown()
+    }
+
+    @Test
+    fun putAllでまとめて追加できること() {
+        val records = listOf(record("a"), record("b"), record("c"))
+        val ids = DataStore.putAll(records)
+
+        assertThat(ids).doesNotContain(-1L)
+        assertThat(records.map { it.id }).isEqualTo(ids)
+        assertThat(readAll().map { it.event.eventName.value }).containsExactly("a", "b", "c").inOrder()
+    }
+
+    @Test
+    fun updateAllでまとめて更新できること() {
+        val records = listOf(record("a"), record("b"))
+        DataStore.putAll(records)
+        records.forEach { it.state = EventRecord.State.Failed }
+
+        assertThat(DataStore.updateAll(records)).isEqualTo(2)
+        val failed = DataStore.read(
+            EventRecord.EventContract,
+            listOf(
+                Triple(
+                    EventRecord.EventContract.STATE,
+                    RelationalOperator.Equal,
+                    EventRecord.State.Failed.ordinal.toString()
+                )
+            )
+        )
+        assertThat(failed).hasSize(2)
+    }
+
+    @Test
+    fun putAllで一部の書き込みに失敗した場合は全て追加されないこと() {
+        val records = listOf(record("a"), MissingRecord(), record("b"))
+
+        assertThat(DataStore.putAll(records)).containsExactly(-1L, -1L, -1L)
+        assertThat(records.map { it.id }).containsExactly(-1L, -1L, -1L)
+        assertThat(readAll()).isEmpty()
+    }
+
+    @Test
+    fun updateAllで一部の書き込みに失敗した場合は全て更新されないこと() {
+        val records = listOf(record("a"), record("b"))
+        DataStore.putAll(records)
+        records.forEach { it.state = EventRecord.State.Failed }
+
+        assertThat(DataStore.updateAll(listOf(records[0], MissingRecord(), records[1]))).isEqualTo(0)
+        assertThat(readAll().map { it.state }).containsExactly(EventRecord.State.Queued, EventRecord.State.Queued)
+    }
+
+    @Test
+    fun 削除済みのレコードを更新してもキャッシュに戻らないこと() {
+        val records = listOf(record("a"), record("b"))
+        DataStore.putAll(records)
+        readAll()
+        DataStore.deleteAll(EventRecord.EventContract, listOf(records[0].id))
+        records.forEach { it.state = EventRecord.State.Failed }
+
+        assertThat(DataStore.updateAll(records)).isEqualTo(1)
+        assertThat(readAll().map { it.event.eventName.value }).containsExactly("b")
+    }
+
+    @Test
+    fun 件数を指定すると並び順の先頭から読み込めること() {
+        DataStore.putAll(listOf(record("buy"), record("view"), record("buy"), record("identify")))
+        // キャッシュに載っていてもDBの並び順で読み込まれる
+        readAll()
+
+        val page = DataStore.read(
+            EventRecord.EventContract,
+            listOf(),
+            "${EventRecord.EventContract.PRIORITY} ASC, ${BaseColumns._ID} ASC",
+            2
+        )
+        assertThat(page.map { it.event.eventName.value }).containsExactly("view", "identify").inOrder()
+    }
+
+    @Test
+    fun 全行をキャッシュに保持している場合は件数を指定してもキャッシュから読み込まれること() {
+        val records = listOf(record("buy"), record("view"), record("buy"))
+        DataStore.putAll(records)
+
+        val page = DataStore.read(
+            EventRecord.EventContract,
+            listOf(),
+            "${EventRecord.EventContract.PRIORITY} ASC, ${BaseColumns._ID} ASC",
+            2
+        )
+        assertThat(page).hasSize(2)
+        assertThat(page[0]).isSameInstanceAs(records[1])
+        assertThat(page[1]).isSameInstanceAs(records[0])
+    }
+
+    @Test
+    fun version1のデータベースから送信待ちのイベントを残して移行できること() {
+        val name = "migration_test.db"
+        application.deleteDatabase(name)
+        SQLiteDatabase.openOrCreateDatabase(application.getDatabasePath(name), null).use { db ->
+            db.execSQL(
+                "CREATE TABLE events (_id INTEGER PRIMARY KEY, visitor_id TEXT, original_pv_id TEXT," +
+                    " pv_id TEXT, event TEXT, retry INTEGER, state INTEGER)"
+            )
+            db.execSQL(
+                "INSERT INTO events (visitor_id, original_pv_id, pv_id, event, retry, state)" +
+                    " VALUES ('visitor_id', 'original_pv_id', 'pv_id', ?, 1, 2)",
+                arrayOf(Event(CustomEventName("buy"), values = null).toJSON(true).toString())
+            )
+            db.version = 1
+        }
+
+        val helper = DbHelper(application, name)
+        try {
+            helper.readableDatabase.query("events", null, null, null, null, null, null).use { cursor ->
+                assertThat(cursor.count).isEqualTo(1)
+                cursor.moveToFirst()
+                fun column(column: String) = cursor.getColumnIndexOrThrow(column)
+                assertThat(cursor.getInt(column(EventRecord.EventContract.RETRY))).isEqualTo(1)
+                assertThat(cursor.getInt(column(EventRecord.EventContract.STATE))).isEqualTo(2)
+                assertThat(cursor.getInt(column(EventRecord.EventContract.PRIORITY)))
+                    .isEqualTo(EventRecord.Priority.Normal.ordinal)
+                assertThat(cursor.getLong(column(EventRecord.EventContract.LEASED_AT))).isEqualTo(0L)
+                assertThat(cursor.getString(column(EventRecord.EventContract.TRACE_ID))).hasLength(32)
+                assertThat(cursor.getLong(column(EventRecord.EventContract.TRACKED_AT))).isGreaterThan(0L)
+                assertThat(cursor.getLong(column(EventRecord.EventContract.PERSISTED_AT))).isGreaterThan(0L)
+            }
+        } finally {
+            helper.close()
+            application.deleteDatabase(name)
+        }
+    }
+
+    @Test
+    fun deleteAllでまとめて削除できること() {
+        val records = listOf(record("a"), record("b"), record("c"))
+        DataStore.putAll(records)
+
+        DataStore.deleteAll(EventRecord.EventContract, records.take(2).map { it.id })
+        assertThat(readAll().map { it.event.eventName.value }).containsExactly("c")
+
+        DataStore.deleteAll(EventRecord.EventContract, records.map { it.id })
+        assertThat(readAll()).isEmpty()
+    }
+}
@@ -0,0 +1,313 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.core.config.ExperimentalConfig
+import io.karte.android.test_lib.InternalUtils
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.test_lib.proceedBufferedCall
+import io.karte.android.test_lib.setupKarteApp
+import io.karte.android.test_lib.tearDownKarteApp
+import io.karte.android.tracking.CustomEventName
+import io.karte.android.tracking.Event
+import io.karte.android.tracking.Tracker
+import io.karte.android.tracking.client.TrackRequest
+import io.karte.android.tracking.queue.EventRecord
+import io.karte.android.tracking.queue.getCurrentTimeMillis
+import io.karte.android.utilities.connectivity.Connectivity
+import io.karte.android.utilities.datastore.DataStore
+import io.karte.android.utilities.datastore.RelationalOperator
+import io.karte.android.utilities.http.CONTENT_TYPE_JSON
+import io.karte.android.utilities.http.CONTENT_TYPE_MSGPACK
+import io.karte.android.utilities.http.Client
+import io.karte.android.utilities.http.HEADER_CONTENT_TYPE
+import io.karte.android.utilities.http.Request
+import io.karte.android.utilities.http.Response
+import io.mockk.every
+import io.mockk.mockkObject
+import io.mockk.mockkStatic
+import io.mockk.unmockkObject
+import io.mockk.unmockkStatic
+import io.mockk.verify
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+@Suppress("NonAsciiCharacters")
+class DispatcherTest : RobolectricTestCase() {
+
+    @Before
+    fun init() {
+        setupKarteApp()
+        mockkObject(Client, Connectivity, DataStore)
+        every { Client.execute(any()) } returns Response(200, hashMapOf(), "{response:{}}")
+        every { Connectivity.isOnline(any()) } returns true
+    }
+
+    @After
+    fun tearDown() {
+        tearDownKarteApp()
+        unmockkObject(Client, Connectivity, DataStore)
+    }
+
+    @Test
+    fun 連続したtrackが一つのトランザクションで保存されること() {
+        repeat(50) { Tracker.track("buy", mapOf("index" to it)) }
+        proceedBufferedCall()
+
+        verify(exactly = 1) { DataStore.putAll(match { it.size == 50 }) }
+        verify(exactly = 0) { DataStore.put(any()) }
+    }
+
+    @Test
+    fun 連続したtrackでもdequeueが一度だけ行われること() {
+        repeat(50) { Tracker.track("buy", mapOf("index" to it)) }
+        proceedBufferedCall()
+
+        // 予約されたdequeue 1回のみ. 送信ごとのRateLimitのコールバックによるdequeueは行われない
+        verify(exactly = 1) {
+            DataStore.read(
+                EventRecord.EventContract,
+                match { query -> query.any { it.second == RelationalOperator.Unequal } },
+                any(),
+                any()
+            )
+        }
+    }
+
+    @Test
+    fun ページ単位で読み込み送信するレコードのみが送信中になること() {
+        tearDownKarteApp()
+        setupKarteApp(configBuilder = ExperimentalConfig.Builder().dequeuePageSize(20))
+        val requestingCounts = mutableListOf<Int>()
+        every { Client.execute(any()) } answers {
+            requestingCounts.add(InternalUtils.countRequestingEvents())
+            Response(200, hashMapOf(), "{response:{}}")
+        }
+
+        repeat(50) { Tracker.track("buy", mapOf("index" to it)) }
+        proceedBufferedCall()
+
+        verify { DataStore.read(EventRecord.EventContract, any(), any(), 20) }
+        assertThat(requestingCounts).hasSize(5)
+        assertThat(requestingCounts.maxOrNull()).isAtMost(10)
+    }
+
+    @Test
+    fun 送信中のまま残ったレコードが起動時に復旧されること() {
+        tearDownKarteApp()
+        fun stuck(name: String, retry: Int) = EventRecord(
+            "visitor_id",
+            "original_pv_id",
+            "pv_id",
+            Event(CustomEventName(name), values = null)
+        ).apply {
+            state = EventRecord.State.Requesting
+            leasedAt = System.currentTimeMillis() - 1000
+            this.retry = retry
+        }
+        DataStore.putAll(listOf(stuck("stuck", 0), stuck("poison", 3)))
+
+        setupKarteApp()
+        proceedBufferedCall()
+
+        val records = DataStore.read(EventRecord.EventContract, listOf(), null, 10)
+        assertThat(records.map { it.event.eventName.value }).containsExactly("stuck")
+        assertThat(records.first().state).isEqualTo(EventRecord.State.Failed)
+        assertThat(records.first().retry).isEqualTo(1)
+        assertThat(records.first().leasedAt).isEqualTo(0L)
+        assertThat(Tracker.getMetrics().eventsRecovered).isEqualTo(2)
+    }
+
+    @Test
+    fun 429の場合は再送回数を消費せずにサーバーの指定まで待機すること() {
+        every { Client.execute(any()) } returns Response(429, mapOf("Retry-After" to listOf("120")), "")
+
+        Tracker.track("buy")
+        Tracker.track("buy")
+        proceedBufferedCall()
+
+        verify(exactly = 1) { Client.execute(any()) }
+        val records = DataStore.read(EventRecord.EventContract, listOf(), null, 10)
+            .filter { it.event.eventName.value == "buy" }
+        assertThat(records).hasSize(2)
+        assertThat(records.map { it.state }).containsExactly(EventRecord.State.Queued, EventRecord.State.Queued)
+        assertThat(records.map { it.retry }).containsExactly(0, 0)
+    }
+
+    @Test
+    fun サーバーがMessagePack形式に対応していない場合はJSON形式で送り直すこと() {
+        tearDownKarteApp()
+        setupKarteApp(configBuilder = ExperimentalConfig.Builder().compactEncoding(true))
+        val contentTypes = mutableListOf<String?>()
+        every { Client.execute(any()) } answers {
+            val contentType = firstArg<Request<*>>().headers[HEADER_CONTENT_TYPE]
+            contentTypes.add(contentType)
+            if (contentType == CONTENT_TYPE_JSON) {
+                Response(200, hashMapOf(), "{response:{}}")
+            } else {
+                Response(415, hashMapOf(), "")
+            }
+        }
+
+        Tracker.track("buy")
+        proceedBufferedCall()
+        Tracker.track("buy")
+        proceedBufferedCall()
+
+        assertThat(contentTypes).containsExactly(CONTENT_TYPE_MSGPACK, CONTENT_TYPE_JSON, CONTENT_TYPE_JSON).inOrder()
+        val records = DataStore.read(EventRecord.EventContract, listOf(), null, 10)
+            .filter { it.event.eventName.value == "buy" }
+        assertThat(records).isEmpty()
+    }
+
+    @Test
+    fun 接客に影響するイベントが先に送信されること() {
+        val requests = mutableListOf<Request<*>>()
+        every { Client.execute(capture(requests)) } returns Response(200, hashMapOf(), "{response:{}}")
+
+        repeat(20) { Tracker.track("buy", mapOf("index" to it)) }
+        Tracker.identify(mapOf("name" to "sample"))
+        proceedBufferedCall()
+
+        val eventNames = requests.filterIsInstance<TrackRequest>().map { request ->
+            request.json.getJSONArray("events").let { events ->
+                List(events.length()) { events.getJSONObject(it).getString("event_name") }
+            }
+        }
+        assertThat(eventNames.first()).containsExactly("identify")
+        assertThat(eventNames.flatten().count { it == "buy" }).isEqualTo(20)
+    }
+
+    @Test
+    fun 異なるビジターのイベントが並列に送信されること() {
+        tearDownKarteApp()
+        setupKarteApp(configBuilder = ExperimentalConfig.Builder().maxConcurrentRequests(2))
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val bothStarted = CountDownLatch(2)
+        every { Client.execute(any()) } answers {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+            bothStarted.countDown()
+            bothStarted.await(1, TimeUnit.SECONDS)
+            running.decrementAndGet()
+            Response(200, hashMapOf(), "{response:{}}")
+        }
+
+        Tracker.track(Event(CustomEventName("buy"), values = null), "visitor_a")
+        Tracker.track(Event(CustomEventName("buy"), values = null), "visitor_b")
+        // 送信の完了はTrackerのスレッドに戻して反映されるため、送信待ちが無くなるまで進める
+        val deadline = System.currentTimeMillis() + 5000
+        while (true) {
+            proceedBufferedCall()
+            val pending = DataStore.read(EventRecord.EventContract, listOf(), null, 10)
+            if (pending.isEmpty() || System.currentTimeMillis() > deadline) break
+            Thread.sleep(10)
+        }
+
+        assertThat(maxRunning.get()).isEqualTo(2)
+        assertThat(DataStore.read(EventRecord.EventContract, listOf(), null, 10)).isEmpty()
+    }
+
+    @Test
+    fun 並列に送信中のレコードは期限が切れても復旧されないこと() {
+        tearDownKarteApp()
+        var now = System.currentTimeMillis()
+        mockkStatic("io.karte.android.tracking.queue.RateLimitKt")
+        every { getCurrentTimeMillis() } answers { now }
+        setupKarteApp(configBuilder = ExperimentalConfig.Builder().maxConcurrentRequests(2))
+        proceedBufferedCall()
+        val sent = Collections.synchronizedList(mutableListOf<String>())
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        every { Client.execute(any()) } answers {
+            val events = (firstArg<Request<*>>() as TrackRequest).json.getJSONArray("events")
+            repeat(events.length()) { sent.add(events.getJSONObject(it).getString("event_name")) }
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+            Response(200, hashMapOf(), "{response:{}}")
+        }
+
+        // 初期化時のイベントの送信と重ならないようにビジターを分ける
+        Tracker.track(Event(CustomEventName("buy"), values = null), "visitor_a")
+        proceedBufferedCall()
+        assertThat(started.await(1, TimeUnit.SECONDS)).isTrue()
+        // 応答を待っている間にリースの期限を過ぎる
+        now += 120_000
+        Tracker.track("cancel")
+        proceedBufferedCall()
+
+        val buy = DataStore.read(EventRecord.EventContract, listOf(), null, 10)
+            .single { it.event.eventName.value == "buy" }
+        assertThat(buy.state).isEqualTo(EventRecord.State.Requesting)
+        assertThat(buy.retry).isEqualTo(0)
+
+        release.countDown()
+        val deadline = System.currentTimeMillis() + 5000
+        while (true) {
+            proceedBufferedCall()
+            val pending = DataStore.read(EventRecord.EventContract, listOf(), null, 10)
+            if (pending.isEmpty() || System.currentTimeMillis() > deadline) break
+            Thread.sleep(10)
+        }
+        unmockkStatic("io.karte.android.tracking.queue.RateLimitKt")
+
+        assertThat(sent.count { it == "buy" }).isEqualTo(1)
+        assertThat(sent).contains("cancel")
+    }
+
+    @Test
+    fun 同じページビューのイベントは優先度が異なっても並列に送信されないこと() {
+        tearDownKarteApp()
+        setupKarteApp(configBuilder = ExperimentalConfig.Builder().maxConcurrentRequests(2))
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        every { Client.execute(any()) } answers {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+            Thread.sleep(100)
+            running.decrementAndGet()
+            Response(200, hashMapOf(), "{response:{}}")
+        }
+
+        Tracker.track("buy")
+        Tracker.identify(mapOf("name" to "sample"))
+        val deadline = System.currentTimeMillis() + 5000
+        while (true) {
+            proceedBufferedCall()
+            val pending = DataStore.read(EventRecord.EventContract, listOf(), null, 10)
+            if (pending.isEmpty() || System.currentTimeMillis() > deadline) break
+            Thread.sleep(10)
+        }
+
+        verify(atLeast = 2) { Client.execute(any()) }
+        assertThat(maxRunning.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun 優先度がイベント名から決まること() {
+        assertThat(EventRecord.Priority.of(Event(CustomEventName("view"), values = null)))
+            .isEqualTo(EventRecord.Priority.High)
+        assertThat(EventRecord.Priority.of(Event(CustomEventName("_message_ready"), values = null)))
+            .isEqualTo(EventRecord.Priority.High)
+        assertThat(EventRecord.Priority.of(Event(CustomEventName("buy"), values = null)))
+            .isEqualTo(EventRecord.Priority.Normal)
+    }
+}
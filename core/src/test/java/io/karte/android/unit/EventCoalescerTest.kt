@@ -0,0 +1,152 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.tracking.AutoEventName
+import io.karte.android.tracking.BaseEventName
+import io.karte.android.tracking.CustomEventName
+import io.karte.android.tracking.Event
+import io.karte.android.tracking.TrackCompletion
+import io.karte.android.tracking.Values
+import io.karte.android.tracking.queue.EventCoalescer
+import io.karte.android.tracking.queue.TrackSnapshot
+import org.junit.Test
+
+@Suppress("NonAsciiCharacters")
+class EventCoalescerTest : RobolectricTestCase() {
+    private val results = mutableListOf<Pair<String, Boolean>>()
+
+    private fun snapshot(
+        event: Event,
+        label: String,
+        visitorId: String = "vis",
+        pvId: String = "pv"
+    ): TrackSnapshot =
+        TrackSnapshot(event, visitorId, pvId, pvId, TrackCompletion { results.add(label to it) }, true)
+
+    private fun event(name: String, values: Values = mapOf()): Event = Event(CustomEventName(name), values)
+
+    private fun attribute(values: Values): Event = Event(BaseEventName.Attribute, values)
+
+    @Test
+    fun attributeイベントは最初の位置に一つにまとめられ後の値で上書きされること() {
+        val coalescer = EventCoalescer()
+        val coalesced = coalescer.coalesce(
+            listOf(
+                snapshot(attribute(mapOf("a" to 1, "b" to 1)), "first"),
+                snapshot(event("buy"), "buy"),
+                snapshot(attribute(mapOf("b" to 2)), "second")
+            )
+        )
+
+        assertThat(coalesced.map { it.event.eventName.value }).containsExactly("attribute", "buy").inOrder()
+        val values = coalesced[0].event.values
+        assertThat(values.getInt("a")).isEqualTo(1)
+        assertThat(values.getInt("b")).isEqualTo(2)
+
+        coalesced[0].completion?.onComplete(true)
+        assertThat(results).containsExactly("second" to true, "first" to true)
+    }
+
+    @Test
+    fun ビジターやページが異なるattributeイベントはまとめないこと() {
+        val coalesced = EventCoalescer().coalesce(
+            listOf(
+                snapshot(attribute(mapOf("a" to 1)), "1"),
+                snapshot(attribute(mapOf("a" to 2)), "2", visitorId = "other"),
+                snapshot(attribute(mapOf("a" to 3)), "3", pvId = "other")
+            )
+        )
+
+        assertThat(coalesced).hasSize(3)
+    }
+
+    @Test
+    fun backgroundの直後のforegroundは両方破棄されること() {
+        val discarded = mutableListOf<TrackCompletion>()
+        val coalesced = EventCoalescer(onDiscard = { discarded.add(it) }).coalesce(
+            listOf(
+                snapshot(event("buy"), "buy"),
+                snapshot(Event(AutoEventName.NativeAppBackground, values = null), "background"),
+                snapshot(Event(AutoEventName.NativeAppForeground, values = null), "foreground")
+            )
+        )
+
+        assertThat(coalesced.map { it.event.eventName.value }).containsExactly("buy")
+        discarded.forEach { it.onComplete(false) }
+        assertThat(results).containsExactly("background" to false, "foreground" to false).inOrder()
+    }
+
+    @Test
+    fun まとめたattributeイベントを挟むbackgroundとforegroundは破棄しないこと() {
+        val coalesced = EventCoalescer().coalesce(
+            listOf(
+                snapshot(attribute(mapOf("a" to 1)), "first"),
+                snapshot(Event(AutoEventName.NativeAppBackground, values = null), "background"),
+                snapshot(attribute(mapOf("a" to 2)), "second"),
+                snapshot(Event(AutoEventName.NativeAppForeground, values = null), "foreground")
+            )
+        )
+
+        assertThat(coalesced.map { it.event.eventName.value })
+            .containsExactly("attribute", "native_app_background", "native_app_foreground").inOrder()
+    }
+
+    @Test
+    fun 間に別のイベントがあるbackgroundとforegroundは破棄しないこと() {
+        val coalesced = EventCoalescer().coalesce(
+            listOf(
+                snapshot(Event(AutoEventName.NativeAppBackground, values = null), "background"),
+                snapshot(event("buy"), "buy"),
+                snapshot(Event(AutoEventName.NativeAppForeground, values = null), "foreground")
+            )
+        )
+
+        assertThat(coalesced).hasSize(3)
+    }
+
+    @Test
+    fun 同じ値の自動計測イベントは最初の一つのみ残ること() {
+        fun autoTrack(values: Values) = event("tap", values + mapOf("_system" to mapOf("auto_track" to 1)))
+        val coalesced = EventCoalescer().coalesce(
+            listOf(
+                snapshot(autoTrack(mapOf("price" to 100)), "1"),
+                snapshot(autoTrack(mapOf("price" to 200)), "2"),
+                snapshot(autoTrack(mapOf("price" to 100)), "3")
+            )
+        )
+
+        assertThat(coalesced).hasSize(2)
+        coalesced.forEach { it.completion?.onComplete(false) }
+        assertThat(results).containsExactly("1" to false, "3" to false, "2" to false)
+    }
+
+    @Test
+    fun 指定されたイベント名のみ同じ値のものがまとめられること() {
+        val coalesced = EventCoalescer(dedupeEventNames = setOf("view_item")).coalesce(
+            listOf(
+                snapshot(event("view_item", mapOf("id" to 1)), "1"),
+                snapshot(event("view_item", mapOf("id" to 1)), "2"),
+                snapshot(event("buy", mapOf("price" to 100)), "3"),
+                snapshot(event("buy", mapOf("price" to 100)), "4")
+            )
+        )
+
+        assertThat(coalesced.map { it.event.eventName.value }).containsExactly("view_item", "buy", "buy").inOrder()
+    }
+}
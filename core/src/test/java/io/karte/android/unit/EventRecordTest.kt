@@ -0,0 +1,126 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import android.provider.BaseColumns
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.test_lib.proceedBufferedCall
+import io.karte.android.test_lib.setupKarteApp
+import io.karte.android.test_lib.tearDownKarteApp
+import io.karte.android.tracking.CustomEventName
+import io.karte.android.tracking.Event
+import io.karte.android.tracking.EventLatency
+import io.karte.android.tracking.EventLatencyListener
+import io.karte.android.tracking.Tracker
+import io.karte.android.tracking.queue.EventRecord
+import io.karte.android.utilities.datastore.DataStore
+import io.karte.android.utilities.datastore.RelationalOperator
+import io.karte.android.utilities.connectivity.Connectivity
+import io.karte.android.utilities.http.Client
+import io.karte.android.utilities.http.Response
+import io.mockk.every
+import io.mockk.mockkObject
+import io.mockk.unmockkObject
+import io.mockk.verify
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+@Suppress("NonAsciiCharacters")
+class EventRecordTest : RobolectricTestCase() {
+
+    @Before
+    fun init() {
+        setupKarteApp()
+        mockkObject(Client, Connectivity, Event.Companion)
+        every { Client.execute(any()) } returns Response(200, hashMapOf(), "{response:{}}")
+        every { Connectivity.isOnline(any()) } returns true
+    }
+
+    @After
+    fun tearDown() {
+        Tracker.setEventLatencyListener(null)
+        tearDownKarteApp()
+        unmockkObject(Client, Connectivity, Event.Companion)
+    }
+
+    @Test
+    fun eventは一度だけ復元されること() {
+        val record = EventRecord(
+            "visitor_id",
+            "original_pv_id",
+            "pv_id",
+            Event(CustomEventName("buy"), mapOf("item_name" to "t-shirt"))
+        )
+        val first = record.event
+        repeat(5) { record.event }
+
+        assertThat(record.event).isSameInstanceAs(first)
+        assertThat(record.event.values.getString("item_name")).isEqualTo("t-shirt")
+        verify(exactly = 1) { Event.fromJSON(any()) }
+    }
+
+    @Test
+    fun 送信までの復元回数がイベント数と等しいこと() {
+        repeat(10) { Tracker.track("buy", mapOf("item_name" to "t-shirt")) }
+        proceedBufferedCall()
+
+        verify(exactly = 1) { Client.execute(any()) }
+        verify(exactly = 10) { Event.fromJSON(any()) }
+    }
+
+    @Test
+    fun traceIdは保存後も変わらないこと() {
+        val record = EventRecord("visitor_id", "original_pv_id", "pv_id", Event(CustomEventName("buy"), values = null))
+        val traceId = record.traceId
+        assertThat(record.traceId).isEqualTo(traceId)
+
+        val id = DataStore.put(record)
+        // キャッシュではなくDBから読み込む
+        val query = listOf(Triple(BaseColumns._ID, RelationalOperator.Equal, id.toString()))
+        val stored = DataStore.read(EventRecord.EventContract, query, null, 1).single()
+
+        assertThat(stored.traceId).isEqualTo(traceId)
+        assertThat(stored.trackedAt).isEqualTo(record.trackedAt)
+    }
+
+    @Test
+    fun 送信が完了したイベントごとに所要時間が通知されること() {
+        val latencies = mutableListOf<EventLatency>()
+        Tracker.setEventLatencyListener(object : EventLatencyListener {
+            override fun onComplete(latency: EventLatency) {
+                latencies.add(latency)
+            }
+        })
+
+        Tracker.track("buy")
+        Tracker.track("cancel")
+        proceedBufferedCall()
+
+        val buy = latencies.single { it.eventName == "buy" }
+        val cancel = latencies.single { it.eventName == "cancel" }
+        assertThat(buy.traceId).isNotEqualTo(cancel.traceId)
+        assertThat(buy.isSuccessful).isTrue()
+        assertThat(buy.persistedAt).isAtLeast(buy.trackedAt)
+        assertThat(buy.dequeuedAt).isAtLeast(buy.persistedAt)
+        assertThat(buy.requestedAt).isAtLeast(buy.dequeuedAt)
+        assertThat(buy.completedAt).isAtLeast(buy.requestedAt)
+        assertThat(buy.prepareMs).isAtLeast(0)
+        assertThat(buy.requestMs).isAtLeast(0)
+        assertThat(buy.totalMs).isEqualTo(buy.persistMs + buy.waitMs + buy.prepareMs + buy.requestMs)
+    }
+}
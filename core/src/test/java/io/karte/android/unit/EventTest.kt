@@ -0,0 +1,111 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.tracking.CustomEventName
+import io.karte.android.tracking.Event
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+import org.junit.Assert.assertThrows
+import org.junit.Test
+import java.util.Date
+
+@Suppress("NonAsciiCharacters")
+class EventTest : RobolectricTestCase() {
+    private val date = Date(1600000000000)
+
+    @Test
+    fun Valuesの入れ子まで正規化されること() {
+        val values = mapOf(
+            "date" to date,
+            "list" to listOf(date, null, "a"),
+            "array" to arrayOf(1, 2),
+            "map" to mapOf("nested" to listOf(mapOf("date" to date)), "empty" to null)
+        )
+        val event = Event(CustomEventName("buy"), values)
+
+        assertThat(event.values.toString()).isEqualTo(
+            JSONObject()
+                .put("date", 1600000000L)
+                .put("list", JSONArray().put(1600000000L).put("a"))
+                .put("array", JSONArray().put(1).put(2))
+                .put("map", JSONObject().put("nested", JSONArray().put(JSONObject().put("date", 1600000000L))))
+                .toString()
+        )
+    }
+
+    @Test
+    fun JSONObjectの入れ子まで正規化されること() {
+        val json = JSONObject()
+            .put("date", date)
+            .put("null", JSONObject.NULL)
+            .put("nested", JSONObject().put("list", JSONArray().put(date).put(JSONObject.NULL)))
+        val event = Event(CustomEventName("buy"), json)
+
+        assertThat(event.values.toString()).isEqualTo(
+            JSONObject()
+                .put("date", 1600000000L)
+                .put("null", JSONObject.NULL)
+                .put("nested", JSONObject().put("list", JSONArray().put(1600000000L).put(JSONObject.NULL)))
+                .toString()
+        )
+        // 元のJSONObjectは変更されないこと
+        assertThat(json.get("date")).isEqualTo(date)
+    }
+
+    @Test
+    fun JSONで表現できない数値が含まれる場合は例外となること() {
+        assertThrows(JSONException::class.java) {
+            Event(CustomEventName("buy"), mapOf("nan" to Double.NaN))
+        }
+        assertThrows(JSONException::class.java) {
+            Event(CustomEventName("buy"), mapOf("list" to listOf(1, Float.POSITIVE_INFINITY)))
+        }
+        assertThrows(JSONException::class.java) {
+            Event(CustomEventName("buy"), mapOf("map" to mapOf("inf" to Double.NEGATIVE_INFINITY)))
+        }
+    }
+
+    @Test
+    fun JSONObject_NULLは取り除かれずにnullとして送信されること() {
+        val event = Event(CustomEventName("buy"), mapOf("cleared" to JSONObject.NULL, "list" to listOf(null, 1)))
+
+        assertThat(event.values.has("cleared")).isTrue()
+        assertThat(event.values.isNull("cleared")).isTrue()
+        assertThat(event.values.getJSONArray("list").toString()).isEqualTo("[1]")
+        assertThat(event.toJSON().getJSONObject("values").toString()).contains("\"cleared\":null")
+    }
+
+    @Test
+    fun 構築時に非推奨のフィールド名が判定されること() {
+        assertThat(Event(CustomEventName("buy"), mapOf("a.b" to 1)).isDeprecatedEventFieldName).isTrue()
+        assertThat(Event(CustomEventName("buy"), mapOf("ab" to 1)).isDeprecatedEventFieldName).isFalse()
+        // 入れ子のフィールド名は対象外
+        assertThat(Event(CustomEventName("buy"), mapOf("a" to mapOf("\$b" to 1))).isDeprecatedEventFieldName)
+            .isFalse()
+    }
+
+    @Test
+    fun valuesを差し替えると非推奨のフィールド名が再判定されること() {
+        val event = Event(CustomEventName("buy"), mapOf("ab" to 1))
+        event.values = JSONObject().put("\$js", 1)
+
+        assertThat(event.isDeprecatedEventFieldName).isTrue()
+    }
+}
@@ -16,18 +16,24 @@
 package io.karte.android.unit
 
 import io.karte.android.test_lib.parseBody
-import io.karte.android.utilities.gzip
+import io.karte.android.test_lib.parseJSONBody
+import io.karte.android.tracking.CustomEventName
+import io.karte.android.tracking.Event
+import io.karte.android.tracking.client.TrackRequest
 import io.karte.android.utilities.http.CONTENT_ENCODING_GZIP
 import io.karte.android.utilities.http.CONTENT_TYPE_JSON
+import io.karte.android.utilities.http.CONTENT_TYPE_MSGPACK
 import io.karte.android.utilities.http.Client
 import io.karte.android.utilities.http.HEADER_CONTENT_ENCODING
 import io.karte.android.utilities.http.HEADER_CONTENT_TYPE
 import io.karte.android.utilities.http.JSONRequest
+import io.karte.android.utilities.http.HttpEngine
 import io.karte.android.utilities.http.METHOD_POST
-import io.mockk.every
-import io.mockk.mockkStatic
+import io.karte.android.utilities.http.OkHttpEngine
+import io.karte.android.utilities.http.UrlConnectionEngine
 import okhttp3.mockwebserver.MockResponse
 import okhttp3.mockwebserver.MockWebServer
+import org.json.JSONObject
 import org.junit.After
 import org.junit.Assert
 import org.junit.Before
@@ -35,6 +41,7 @@ import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
 import org.robolectric.annotation.Config
+import java.io.ByteArrayOutputStream
 import java.io.IOException
 
 @RunWith(RobolectricTestRunner::class)
@@ -74,15 +81,13 @@ class HttpClientTest {
     }
 
     @Test
-    fun postRequestWithJsonWhenGzipFailed() {
+    fun postRequestWithoutGzip() {
         server.enqueue(
             MockResponse().setResponseCode(200)
         )
         val url = server.url("/sample").toString()
-        mockkStatic("io.karte.android.utilities.GzipUtilKt")
-        every { gzip(any()) } returns null
 
-        val response = Client.execute(JSONRequest(url, METHOD_POST).apply { body = "mybody" })
+        val response = Client.execute(JSONRequest(url, METHOD_POST, false).apply { body = "mybody" })
 
         Assert.assertTrue(response.isSuccessful)
         val request = server.takeRequest()
@@ -91,6 +96,104 @@ class HttpClientTest {
         Assert.assertEquals("mybody", request.body.readUtf8())
     }
 
+    @Test
+    fun gzipRequestShouldBeStreamed() {
+        server.enqueue(
+            MockResponse().setResponseCode(200)
+        )
+        val url = server.url("/sample").toString()
+        val body = "a".repeat(100000)
+
+        Client.execute(JSONRequest(url, METHOD_POST).apply { this.body = body })
+
+        val request = server.takeRequest()
+        Assert.assertEquals("chunked", request.headers["Transfer-Encoding"])
+        Assert.assertNull(request.headers["Content-Length"])
+        Assert.assertEquals(body, request.parseBody())
+    }
+
+    @Test
+    fun trackRequestShouldWriteSameBodyAsJson() {
+        val events = listOf(
+            Event(CustomEventName("buy"), mapOf("item_name" to "t-shirt", "price" to 100)),
+            Event(CustomEventName("view"), mapOf("view_name" to "top"))
+        )
+        val request = TrackRequest(
+            server.url("/sample").toString(),
+            "visitor_id",
+            "original_pv_id",
+            "pv_id",
+            events,
+            JSONObject().put("version_name", "1.0.0")
+        )
+
+        val stream = ByteArrayOutputStream()
+        request.writeBody(stream)
+
+        Assert.assertEquals(request.json.toString(), stream.toString("UTF-8"))
+    }
+
+    @Test
+    fun compactTrackRequestShouldBeDecodedToSameJson() {
+        server.enqueue(MockResponse().setResponseCode(200))
+        val request = TrackRequest(
+            server.url("/sample").toString(),
+            "visitor_id",
+            "original_pv_id",
+            "pv_id",
+            listOf(Event(CustomEventName("buy"), mapOf("item_name" to "t-shirt", "price" to 100))),
+            JSONObject().put("version_name", "1.0.0")
+        ).apply { isCompact = true }
+
+        Client.execute(request)
+
+        val recorded = server.takeRequest()
+        Assert.assertEquals(CONTENT_TYPE_MSGPACK, recorded.headers[HEADER_CONTENT_TYPE])
+        Assert.assertEquals(request.json.toString(), recorded.parseJSONBody().toString())
+    }
+
+    private fun executeRepeatedly(engine: HttpEngine, count: Int): List<Int> {
+        val url = server.url("/sample").toString()
+        return List(count) {
+            server.enqueue(MockResponse().setBody("ok"))
+            val response = engine.execute(JSONRequest(url, METHOD_POST).apply { body = "mybody" })
+            Assert.assertEquals("ok", response.body)
+            server.takeRequest().sequenceNumber
+        }
+    }
+
+    @Test
+    fun urlConnectionEngineShouldReuseConnection() {
+        val sequences = executeRepeatedly(UrlConnectionEngine(), 3)
+
+        Assert.assertEquals(listOf(0, 1, 2), sequences)
+    }
+
+    @Test
+    fun okHttpEngineShouldReuseConnection() {
+        val engine = OkHttpEngine()
+        val sequences = executeRepeatedly(engine, 3)
+
+        Assert.assertEquals(listOf(0, 1, 2), sequences)
+        Assert.assertEquals(3L, engine.stats.requests)
+        Assert.assertEquals(1L, engine.stats.newConnections)
+        Assert.assertEquals(2L, engine.stats.reusedConnections)
+    }
+
+    @Test
+    fun okHttpEngineShouldSendGzipBody() {
+        server.enqueue(MockResponse().setResponseCode(200))
+        val url = server.url("/sample").toString()
+
+        val response = OkHttpEngine().execute(JSONRequest(url, METHOD_POST).apply { body = "mybody" })
+
+        Assert.assertTrue(response.isSuccessful)
+        val request = server.takeRequest()
+        Assert.assertEquals(CONTENT_TYPE_JSON, request.headers[HEADER_CONTENT_TYPE])
+        Assert.assertEquals(CONTENT_ENCODING_GZIP, request.headers[HEADER_CONTENT_ENCODING])
+        Assert.assertEquals("mybody", request.parseBody())
+    }
+
     @Test(expected = IOException::class)
     fun networkErrorAtPostRequestRaiseIoException() {
         val url = server.url("/sample").toString()
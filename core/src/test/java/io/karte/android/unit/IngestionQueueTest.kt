@@ -0,0 +1,159 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.core.config.BackpressurePolicy
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.tracking.queue.IngestionQueue
+import io.karte.android.tracking.queue.RingBuffer
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
+
+@Suppress("NonAsciiCharacters")
+class IngestionQueueTest : RobolectricTestCase() {
+    private fun IngestionQueue<Int>.drain(): List<Int> = generateSequence(::poll).toList()
+
+    @Test
+    fun 容量は2のべき乗に切り上げられること() {
+        assertThat(RingBuffer<Int>(1).capacity).isEqualTo(2)
+        assertThat(RingBuffer<Int>(3).capacity).isEqualTo(4)
+        assertThat(RingBuffer<Int>(1024).capacity).isEqualTo(1024)
+    }
+
+    @Test
+    fun 追加した順に取り出せること() {
+        val buffer = RingBuffer<Int>(4)
+        repeat(4) { assertThat(buffer.offer(it)).isTrue() }
+        assertThat(buffer.offer(4)).isFalse()
+        assertThat(buffer.size).isEqualTo(4)
+        assertThat(generateSequence(buffer::poll).toList()).containsExactly(0, 1, 2, 3).inOrder()
+        assertThat(buffer.size).isEqualTo(0)
+    }
+
+    @Test
+    fun DROP_OLDESTでは古い要素から破棄されること() {
+        val dropped = mutableListOf<Int>()
+        val queue = IngestionQueue<Int>(4, BackpressurePolicy.DROP_OLDEST, onDrop = { dropped.add(it) })
+        repeat(6) { assertThat(queue.offer(it)).isTrue() }
+
+        assertThat(dropped).containsExactly(0, 1).inOrder()
+        assertThat(queue.stats.dropped).isEqualTo(2)
+        assertThat(queue.drain()).containsExactly(2, 3, 4, 5).inOrder()
+    }
+
+    @Test
+    fun DROP_NON_RETRYABLEではリトライ不可能な古い要素から破棄されること() {
+        val dropped = mutableListOf<Int>()
+        val queue = IngestionQueue<Int>(
+            4,
+            BackpressurePolicy.DROP_NON_RETRYABLE,
+            isRetryable = { it % 2 == 0 },
+            onDrop = { dropped.add(it) }
+        )
+        repeat(4) { queue.offer(it) }
+
+        assertThat(queue.offer(5)).isFalse()
+        assertThat(queue.offer(4)).isTrue()
+        assertThat(queue.offer(6)).isTrue()
+        assertThat(dropped).containsExactly(5, 1, 3).inOrder()
+        assertThat(queue.stats.depth).isEqualTo(4)
+        assertThat(queue.drain()).containsExactly(0, 2, 4, 6).inOrder()
+    }
+
+    @Test
+    fun DROP_NON_RETRYABLEでリトライ不可能な要素が無い場合は新しい要素が破棄されること() {
+        val dropped = mutableListOf<Int>()
+        val queue = IngestionQueue<Int>(
+            2,
+            BackpressurePolicy.DROP_NON_RETRYABLE,
+            isRetryable = { it % 2 == 0 },
+            onDrop = { dropped.add(it) }
+        )
+        queue.offer(0)
+        queue.offer(2)
+
+        assertThat(queue.offer(4)).isFalse()
+        assertThat(dropped).containsExactly(4)
+        assertThat(queue.drain()).containsExactly(0, 2).inOrder()
+    }
+
+    @Test
+    fun 途中から取り除いた要素は取り出す際に読み飛ばされること() {
+        val buffer = RingBuffer<Int>(4)
+        repeat(4) { buffer.offer(it) }
+
+        assertThat(buffer.removeFirst { it % 2 == 1 }).isEqualTo(1)
+        assertThat(buffer.removeFirst { it > 10 }).isNull()
+        assertThat(generateSequence(buffer::poll).toList()).containsExactly(0, 2, 3).inOrder()
+        assertThat(buffer.offer(4)).isTrue()
+    }
+
+    @Test
+    fun BLOCKでは空きができるまで待機すること() {
+        val queue = IngestionQueue<Int>(2, BackpressurePolicy.BLOCK)
+        queue.offer(0)
+        queue.offer(1)
+        val started = CountDownLatch(1)
+        val producer = thread {
+            started.countDown()
+            queue.offer(2)
+        }
+        started.await()
+        Thread.sleep(50)
+        assertThat(queue.poll()).isEqualTo(0)
+        producer.join()
+
+        assertThat(queue.stats.dropped).isEqualTo(0)
+        assertThat(queue.drain()).containsExactly(1, 2).inOrder()
+    }
+
+    @Test
+    fun BLOCKでも待機できないスレッドでは古い要素が破棄されること() {
+        val queue = IngestionQueue<Int>(2, BackpressurePolicy.BLOCK, canBlock = { false })
+        repeat(3) { queue.offer(it) }
+
+        assertThat(queue.stats.dropped).isEqualTo(1)
+        assertThat(queue.drain()).containsExactly(1, 2).inOrder()
+    }
+
+    @Test
+    fun 格納数の最大値が記録されること() {
+        val queue = IngestionQueue<Int>(8, BackpressurePolicy.DROP_OLDEST)
+        repeat(5) { queue.offer(it) }
+        queue.drain()
+        queue.offer(5)
+
+        assertThat(queue.stats.depth).isEqualTo(1)
+        assertThat(queue.stats.highWaterMark).isEqualTo(5)
+    }
+
+    @Test
+    fun 複数のスレッドから追加しても欠落しないこと() {
+        val queue = IngestionQueue<Int>(64, BackpressurePolicy.BLOCK)
+        val producers = List(4) { p -> thread { repeat(1000) { queue.offer(p * 1000 + it) } } }
+        val received = mutableListOf<Int>()
+        while (received.size < 4000) {
+            queue.poll()?.let { received.add(it) }
+        }
+        producers.forEach { it.join() }
+
+        assertThat(received.toSet()).hasSize(4000)
+        assertThat(queue.stats.dropped).isEqualTo(0)
+        assertThat(queue.stats.highWaterMark).isAtMost(64)
+    }
+}
@@ -0,0 +1,114 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.core.logger.Appender
+import io.karte.android.core.logger.FileAppender
+import io.karte.android.core.logger.LogEvent
+import io.karte.android.core.logger.LogLevel
+import io.karte.android.core.logger.Logger
+import io.karte.android.test_lib.RobolectricTestCase
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+@Suppress("NonAsciiCharacters")
+class LoggerTest : RobolectricTestCase() {
+    private val logs = mutableListOf<LogEvent>()
+    private val appender = object : Appender {
+        override fun append(log: LogEvent) {
+            logs.add(log)
+        }
+    }
+    private lateinit var originalLevel: LogLevel
+
+    @Before
+    fun init() {
+        originalLevel = Logger.level
+        Logger.addAppender(appender)
+    }
+
+    @After
+    fun tearDown() {
+        Logger.removeAppender(appender)
+        Logger.level = originalLevel
+    }
+
+    @Test
+    fun 出力されないレベルではラムダが評価されないこと() {
+        Logger.level = LogLevel.WARN
+        var evaluated = false
+        Logger.d("tag") {
+            evaluated = true
+            "message"
+        }
+
+        assertThat(evaluated).isFalse()
+        assertThat(logs).isEmpty()
+    }
+
+    @Test
+    fun 出力されるレベルではラムダの結果が渡されること() {
+        Logger.level = LogLevel.VERBOSE
+        Logger.i("tag") { "message" }
+
+        assertThat(logs).hasSize(1)
+        assertThat(logs[0].level).isEqualTo(LogLevel.INFO)
+        assertThat(logs[0].message).isEqualTo("message")
+    }
+
+    @Test
+    fun 削除したAppenderには渡されないこと() {
+        Logger.level = LogLevel.VERBOSE
+        Logger.removeAppender(appender)
+        Logger.e("tag", "message")
+
+        assertThat(logs).isEmpty()
+    }
+
+    @Test
+    fun FileAppenderでファイルに書き込まれること() {
+        Logger.level = LogLevel.VERBOSE
+        val file = File(application.cacheDir, "karte_test.log").apply { delete() }
+        val fileAppender = FileAppender(file)
+        Logger.addAppender(fileAppender)
+        Logger.w("tag", "first")
+        Logger.w("tag", "second")
+        Logger.removeAppender(fileAppender)
+        fileAppender.close()
+
+        val lines = file.readLines()
+        assertThat(lines).hasSize(2)
+        assertThat(lines[0]).endsWith("W/tag: first")
+        assertThat(lines[1]).endsWith("W/tag: second")
+    }
+
+    @Test
+    fun FileAppenderのバッファが溢れた場合は古いログから破棄されること() {
+        Logger.level = LogLevel.VERBOSE
+        val file = File(application.cacheDir, "karte_test.log").apply { delete() }
+        val fileAppender = FileAppender(file, 2)
+        Logger.addAppender(fileAppender)
+        repeat(5) { Logger.w("tag", "log$it") }
+        Logger.removeAppender(fileAppender)
+        fileAppender.close()
+
+        assertThat(fileAppender.droppedCount).isEqualTo(3)
+        assertThat(file.readLines().map { it.substringAfter(": ") }).containsExactly("log3", "log4").inOrder()
+    }
+}
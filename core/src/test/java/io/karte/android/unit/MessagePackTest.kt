@@ -0,0 +1,58 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import io.karte.android.utilities.MessagePack
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class MessagePackTest {
+
+    @Test
+    fun testPackPrimitives() {
+        Assert.assertArrayEquals(byteArrayOf(0xc0.toByte()), MessagePack.pack(null))
+        Assert.assertArrayEquals(byteArrayOf(0xc3.toByte()), MessagePack.pack(true))
+        Assert.assertArrayEquals(byteArrayOf(0x7f), MessagePack.pack(127))
+        Assert.assertArrayEquals(byteArrayOf(0xff.toByte()), MessagePack.pack(-1))
+        Assert.assertArrayEquals(byteArrayOf(0xd1.toByte(), 0x01, 0x00), MessagePack.pack(256))
+        Assert.assertArrayEquals(byteArrayOf(0xa3.toByte(), 0x61, 0x62, 0x63), MessagePack.pack("abc"))
+    }
+
+    @Test
+    fun testRoundTrip() {
+        val json = JSONObject()
+            .put("string", "あいう")
+            .put("long_string", "a".repeat(70000))
+            .put("int", -200)
+            .put("long", 1600000000000L)
+            .put("double", 1.5)
+            .put("bool", false)
+            .put("null", JSONObject.NULL)
+            .put("array", JSONArray().put(1).put("two").put(JSONObject().put("three", 3)))
+            .put("empty", JSONObject())
+
+        val unpacked = MessagePack.unpack(MessagePack.pack(json))
+
+        Assert.assertEquals(json.toString(), unpacked.toString())
+    }
+}
@@ -0,0 +1,138 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.tracking.CustomEventName
+import io.karte.android.tracking.Event
+import io.karte.android.tracking.queue.EventRecord
+import io.karte.android.utilities.datastore.PersistableCache
+import io.karte.android.utilities.datastore.RelationalOperator
+import org.junit.Test
+
+@Suppress("NonAsciiCharacters")
+class PersistableCacheTest : RobolectricTestCase() {
+    private fun record(id: Long, state: EventRecord.State = EventRecord.State.Queued): EventRecord =
+        EventRecord("visitor_id", "original_pv_id", "pv_id", Event(CustomEventName("buy"), values = null)).apply {
+            this.id = id
+            this.state = state
+        }
+
+    private fun stateQuery(operator: RelationalOperator, state: EventRecord.State) = listOf(
+        Triple(EventRecord.EventContract.STATE, operator, state.ordinal.toString())
+    )
+
+    @Test
+    fun 索引を使って状態で検索できること() {
+        val cache = PersistableCache()
+        cache.put(record(1))
+        cache.put(record(2, EventRecord.State.Requesting))
+        cache.put(record(3, EventRecord.State.Failed))
+
+        val result = cache.read(
+            EventRecord.EventContract,
+            stateQuery(RelationalOperator.Unequal, EventRecord.State.Requesting)
+        )
+        assertThat(result.map { it.id }).containsExactly(1L, 3L).inOrder()
+
+        val requesting = cache.read(
+            EventRecord.EventContract,
+            stateQuery(RelationalOperator.Equal, EventRecord.State.Requesting)
+        )
+        assertThat(requesting.map { it.id }).containsExactly(2L)
+    }
+
+    @Test
+    fun 数値の大小で検索できること() {
+        val cache = PersistableCache()
+        cache.put(record(1, EventRecord.State.Requesting).apply { leasedAt = 100 })
+        cache.put(record(2, EventRecord.State.Requesting).apply { leasedAt = 300 })
+        cache.put(record(3).apply { leasedAt = 0 })
+
+        val expired = cache.read(
+            EventRecord.EventContract,
+            stateQuery(RelationalOperator.Equal, EventRecord.State.Requesting) +
+                Triple(EventRecord.EventContract.LEASED_AT, RelationalOperator.LessThan, "200")
+        )
+        assertThat(expired.map { it.id }).containsExactly(1L)
+    }
+
+    @Test
+    fun 更新後の状態で索引が張り直されること() {
+        val cache = PersistableCache()
+        val record = record(1)
+        cache.put(record)
+
+        record.state = EventRecord.State.Requesting
+        cache.put(record)
+
+        assertThat(
+            cache.read(EventRecord.EventContract, stateQuery(RelationalOperator.Unequal, EventRecord.State.Requesting))
+        ).isEmpty()
+        assertThat(
+            cache.read(EventRecord.EventContract, stateQuery(RelationalOperator.Equal, EventRecord.State.Requesting))
+        ).containsExactly(record)
+    }
+
+    @Test
+    fun 削除したレコードが検索されないこと() {
+        val cache = PersistableCache()
+        val record = record(1)
+        cache.put(record)
+        cache.remove(record)
+
+        assertThat(cache.read(EventRecord.EventContract, listOf())).isEmpty()
+    }
+
+    @Test
+    fun 並び順と件数を指定して読み込めること() {
+        val cache = PersistableCache()
+        cache.put(record(1))
+        cache.put(record(2).apply { values[EventRecord.EventContract.PRIORITY] = 0 })
+        cache.put(record(3))
+        val order = "${EventRecord.EventContract.PRIORITY} ASC, _id DESC"
+
+        assertThat(cache.canOrder(EventRecord.EventContract, order)).isTrue()
+        assertThat(cache.read(EventRecord.EventContract, listOf(), order, 2).map { it.id })
+            .containsExactly(2L, 3L).inOrder()
+        assertThat(cache.canOrder(EventRecord.EventContract, "random()")).isFalse()
+    }
+
+    @Test
+    fun 上限を超えたら古いものから破棄されること() {
+        val size = record(0).size
+        val cache = PersistableCache(size * 2)
+        cache.put(record(1))
+        cache.put(record(2))
+        cache.put(record(3))
+
+        assertThat(cache.read(EventRecord.EventContract, listOf()).map { it.id }).containsExactly(2L, 3L).inOrder()
+    }
+
+    @Test
+    fun 破棄した場合は全行を保持していない扱いになること() {
+        val size = record(0).size
+        val cache = PersistableCache(size * 2)
+        cache.markComplete(EventRecord.EventContract.namespace)
+        cache.put(record(1))
+        cache.put(record(2))
+        assertThat(cache.isComplete(EventRecord.EventContract.namespace)).isTrue()
+
+        cache.put(record(3))
+        assertThat(cache.isComplete(EventRecord.EventContract.namespace)).isFalse()
+    }
+}
@@ -15,31 +15,38 @@
 //
 package io.karte.android.unit
 
-import android.os.Handler
-import android.os.HandlerThread
-import android.os.Process
 import com.google.common.truth.Truth.assertThat
+import io.karte.android.core.repository.PreferenceRepository
+import io.karte.android.core.repository.Repository
 import io.karte.android.test_lib.RobolectricTestCase
-import io.karte.android.test_lib.proceedBufferedCall
 import io.karte.android.tracking.queue.RateLimit
 import io.karte.android.tracking.queue.getCurrentTimeMillis
 import io.mockk.every
 import io.mockk.mockkStatic
 import io.mockk.unmockkStatic
+import org.junit.After
 import org.junit.Before
 import org.junit.Test
 
+@Suppress("NonAsciiCharacters")
 class RateLimitTest : RobolectricTestCase() {
-    private val thread =
-        HandlerThread("test_thread", Process.THREAD_PRIORITY_LOWEST).apply { start() }
-    private val handler: Handler = Handler(thread.looper)
     private lateinit var rateLimit: RateLimit
+    private var now = 10000L
 
     @Before
     fun setup() {
-        rateLimit = RateLimit(handler, 5, 1000)
+        mockkStatic("io.karte.android.tracking.queue.RateLimitKt")
+        every { getCurrentTimeMillis() } answers { now }
+        rateLimit = RateLimit(5, 1000)
+    }
+
+    @After
+    fun tearDown() {
+        unmockkStatic("io.karte.android.tracking.queue.RateLimitKt")
     }
 
+    private fun repository(): Repository = PreferenceRepository(application, "rate_limit_test")
+
     @Test
     fun 正常なリクエスト数なら許可されること() {
         assertThat(rateLimit.canRequest).isTrue()
@@ -57,31 +64,55 @@ class RateLimitTest : RobolectricTestCase() {
     }
 
     @Test
-    fun リクエスト数の上下で制限_許可が行われること() {
-        assertThat(rateLimit.canRequest).isTrue()
-        rateLimit.increment(5)
-        assertThat(rateLimit.canRequest).isTrue()
-        rateLimit.increment(5)
+    fun 古いリクエストが期間外になると順に許可されること() {
+        rateLimit.increment(3)
+        now += 500
+        rateLimit.increment(3)
         assertThat(rateLimit.canRequest).isFalse()
+        assertThat(rateLimit.delayMs).isEqualTo(500)
 
-        rateLimit.decrementWithDelay(3)
-        proceedBufferedCall(thread)
-        assertThat(rateLimit.canRequest).isFalse()
-        rateLimit.decrementWithDelay(3)
-        proceedBufferedCall(thread)
+        now += 500
         assertThat(rateLimit.canRequest).isTrue()
+        assertThat(rateLimit.delayMs).isEqualTo(0)
     }
 
     @Test
-    fun decrementが呼ばれなくても一定期間でlimitが解除されること() {
-        mockkStatic("io.karte.android.tracking.queue.RateLimitKt")
-        every { getCurrentTimeMillis() } returns 0
-        assertThat(rateLimit.canRequest).isTrue()
+    fun 一定期間でlimitが解除されること() {
         rateLimit.increment(10)
         assertThat(rateLimit.canRequest).isFalse()
 
-        every { getCurrentTimeMillis() } returns 5000
+        now += 5000
         assertThat(rateLimit.canRequest).isTrue()
-        unmockkStatic("io.karte.android.tracking.queue.RateLimitKt")
+    }
+
+    @Test
+    fun 時刻が巻き戻された場合は制限されないこと() {
+        rateLimit.increment(10)
+        now -= 5000
+        assertThat(rateLimit.canRequest).isTrue()
+    }
+
+    @Test
+    fun 状態がエンドポイントごとに引き継がれること() {
+        val repository = repository()
+        RateLimit(5, 1000, repository, "track").increment(6)
+
+        assertThat(RateLimit(5, 1000, repository, "track").canRequest).isFalse()
+        assertThat(RateLimit(5, 1000, repository, "ingest").canRequest).isTrue()
+        now += 1000
+        assertThat(RateLimit(5, 1000, repository, "track").canRequest).isTrue()
+    }
+
+    @Test
+    fun 制限に達するまではpersistを呼んだ時のみ保存されること() {
+        val repository = repository()
+        val rateLimit = RateLimit(5, 1000, repository, "track")
+        rateLimit.increment(3)
+        assertThat(repository.get("rate_limit_timestamps_track", "")).isEmpty()
+
+        rateLimit.persist()
+        assertThat(repository.get("rate_limit_timestamps_track", "")).isEqualTo("10000,10000,10000")
+        rateLimit.increment(3)
+        assertThat(RateLimit(5, 1000, repository, "track").canRequest).isFalse()
     }
 }
@@ -0,0 +1,60 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.utilities.http.Response
+import io.karte.android.utilities.http.retryAfterMs
+import org.junit.Test
+
+@Suppress("NonAsciiCharacters")
+class RetryAfterTest : RobolectricTestCase() {
+    private val now = 1_700_000_000_000L
+
+    private fun response(vararg headers: Pair<String, String>) =
+        Response(429, headers.associate { it.first to listOf(it.second) }, "")
+
+    @Test
+    fun 秒数で指定されたRetryAfterを解釈できること() {
+        assertThat(response("Retry-After" to "120").retryAfterMs(now)).isEqualTo(120_000L)
+        assertThat(response("retry-after" to " 5 ").retryAfterMs(now)).isEqualTo(5_000L)
+    }
+
+    @Test
+    fun 日時で指定されたRetryAfterを解釈できること() {
+        // 1700000060 = Tue, 14 Nov 2023 22:14:20 GMT
+        assertThat(response("Retry-After" to "Tue, 14 Nov 2023 22:14:20 GMT").retryAfterMs(now))
+            .isEqualTo(60_000L)
+        assertThat(response("Retry-After" to "Tue, 14 Nov 2023 22:00:00 GMT").retryAfterMs(now))
+            .isEqualTo(0L)
+    }
+
+    @Test
+    fun 残数が0の場合のみRateLimitResetを参照すること() {
+        assertThat(response("RateLimit-Remaining" to "0", "RateLimit-Reset" to "30").retryAfterMs(now))
+            .isEqualTo(30_000L)
+        assertThat(response("X-RateLimit-Remaining" to "0", "X-RateLimit-Reset" to "1700000010").retryAfterMs(now))
+            .isEqualTo(10_000L)
+        assertThat(response("RateLimit-Remaining" to "3", "RateLimit-Reset" to "30").retryAfterMs(now)).isNull()
+    }
+
+    @Test
+    fun 指定が無い場合や解釈できない場合はnullを返すこと() {
+        assertThat(response().retryAfterMs(now)).isNull()
+        assertThat(response("Retry-After" to "soon").retryAfterMs(now)).isNull()
+    }
+}
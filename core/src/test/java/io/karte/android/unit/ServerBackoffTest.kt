@@ -0,0 +1,74 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.core.repository.PreferenceRepository
+import io.karte.android.core.repository.Repository
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.tracking.queue.ServerBackoff
+import io.karte.android.tracking.queue.getCurrentTimeMillis
+import io.mockk.every
+import io.mockk.mockkStatic
+import io.mockk.unmockkStatic
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+@Suppress("NonAsciiCharacters")
+class ServerBackoffTest : RobolectricTestCase() {
+    private var now = 10000L
+
+    @Before
+    fun setup() {
+        mockkStatic("io.karte.android.tracking.queue.RateLimitKt")
+        every { getCurrentTimeMillis() } answers { now }
+    }
+
+    @After
+    fun tearDown() {
+        unmockkStatic("io.karte.android.tracking.queue.RateLimitKt")
+    }
+
+    private fun repository(): Repository = PreferenceRepository(application, "server_backoff_test")
+
+    @Test
+    fun 指定された時間が経過するまで待機すること() {
+        val backoff = ServerBackoff()
+        backoff.delay(1000L)
+        assertThat(backoff.canRequest).isFalse()
+        assertThat(backoff.delayMs).isEqualTo(1000L)
+
+        now += 1000L
+        assertThat(backoff.canRequest).isTrue()
+        assertThat(backoff.delayMs).isEqualTo(0L)
+    }
+
+    @Test
+    fun 時刻が巻き戻された場合は待機が上限までで解除されること() {
+        val repository = repository()
+        ServerBackoff(repository, "track").delay(60_000L)
+
+        // 10時間巻き戻す
+        now -= 36_000_000L
+        val backoff = ServerBackoff(repository, "track")
+        assertThat(backoff.delayMs).isEqualTo(3_600_000L)
+
+        now += 3_600_000L
+        assertThat(backoff.canRequest).isTrue()
+        assertThat(ServerBackoff(repository, "track").canRequest).isTrue()
+    }
+}
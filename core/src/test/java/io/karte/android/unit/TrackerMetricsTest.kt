@@ -0,0 +1,130 @@
+//
+//  Copyright 2020 PLAID, Inc.
+//
+//  Licensed under the Apache License, Version 2.0 (the "License");
+//  you may not use this file except in compliance with the License.
+//  You may obtain a copy of the License at
+//
+//      https://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software
+//  distributed under the License is distributed on an "AS IS" BASIS,
+//  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//  See the License for the specific language governing permissions and
+//  limitations under the License.
+//
+package io.karte.android.unit
+
+import com.google.common.truth.Truth.assertThat
+import io.karte.android.test_lib.RobolectricTestCase
+import io.karte.android.test_lib.proceedBufferedCall
+import io.karte.android.test_lib.setupKarteApp
+import io.karte.android.test_lib.tearDownKarteApp
+import io.karte.android.tracking.MetricsRecorder
+import io.karte.android.tracking.StripedCounter
+import io.karte.android.tracking.Tracker
+import io.karte.android.tracking.TrackerMetrics
+import io.karte.android.tracking.TrackerMetricsListener
+import io.karte.android.utilities.connectivity.Connectivity
+import io.karte.android.utilities.http.Client
+import io.karte.android.utilities.http.Response
+import io.mockk.every
+import io.mockk.mockkObject
+import io.mockk.unmockkObject
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import kotlin.concurrent.thread
+
+@Suppress("NonAsciiCharacters")
+class TrackerMetricsTest : RobolectricTestCase() {
+    private val updates = mutableListOf<TrackerMetrics>()
+    private val listener = object : TrackerMetricsListener {
+        override fun onUpdate(metrics: TrackerMetrics) {
+            updates.add(metrics)
+        }
+    }
+
+    @Before
+    fun init() {
+        mockkObject(Client, Connectivity)
+        every { Client.execute(any()) } returns Response(200, hashMapOf(), "{response:{}}")
+        every { Connectivity.isOnline(any()) } returns true
+        setupKarteApp()
+        // 初期化時に発生するイベントを送信しておく
+        proceedBufferedCall()
+        MetricsRecorder.reset()
+    }
+
+    @After
+    fun tearDown() {
+        Tracker.setMetricsListener(null)
+        MetricsRecorder.reset()
+        tearDownKarteApp()
+        unmockkObject(Client, Connectivity)
+    }
+
+    @Test
+    fun リスナーが未設定の場合は計測されないこと() {
+        Tracker.track("buy")
+        proceedBufferedCall()
+
+        val metrics = Tracker.getMetrics()
+        assertThat(metrics.eventsTracked).isEqualTo(0)
+        assertThat(metrics.eventsSent).isEqualTo(0)
+        assertThat(metrics.requestLatency.count).isEqualTo(0)
+    }
+
+    @Test
+    fun 送信の結果が計測されリスナーに通知されること() {
+        Tracker.setMetricsListener(listener)
+
+        Tracker.track("buy")
+        Tracker.track("cancel")
+        proceedBufferedCall()
+
+        val metrics = Tracker.getMetrics()
+        assertThat(metrics.eventsTracked).isEqualTo(2)
+        assertThat(metrics.eventsPersisted).isEqualTo(2)
+        assertThat(metrics.eventsSent).isEqualTo(2)
+        assertThat(metrics.eventsDropped).isEqualTo(0)
+        assertThat(metrics.requestLatency.count).isEqualTo(1)
+        assertThat(updates).isNotEmpty()
+        assertThat(updates.last().eventsSent).isEqualTo(2)
+    }
+
+    @Test
+    fun 再送できないエラーの場合は破棄として計測されること() {
+        every { Client.execute(any()) } returns Response(400, hashMapOf(), "")
+        Tracker.setMetricsListener(listener)
+
+        Tracker.track("buy")
+        proceedBufferedCall()
+
+        val metrics = Tracker.getMetrics()
+        assertThat(metrics.eventsSent).isEqualTo(0)
+        assertThat(metrics.eventsDropped).isEqualTo(1)
+    }
+
+    @Test
+    fun 受付キューの状態が含まれること() {
+        Tracker.track("buy")
+        Tracker.track("cancel")
+        proceedBufferedCall()
+
+        val metrics = Tracker.getMetrics()
+        assertThat(metrics.queueDepth).isEqualTo(0)
+        assertThat(metrics.queueHighWaterMark).isAtLeast(1)
+        assertThat(metrics.queueDropped).isEqualTo(0)
+    }
+
+    @Test
+    fun 複数のスレッドから加算した値が合計されること() {
+        val counter = StripedCounter()
+        List(4) { thread { repeat(1000) { counter.add(1) } } }.forEach { it.join() }
+
+        assertThat(counter.sum()).isEqualTo(4000)
+        counter.reset()
+        assertThat(counter.sum()).isEqualTo(0)
+    }
+}
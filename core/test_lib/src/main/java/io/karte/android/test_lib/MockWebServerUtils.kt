@@ -16,5 +16,14 @@
 package io.karte.android.test_lib
 
 import okhttp3.mockwebserver.RecordedRequest
+import org.json.JSONObject
+import java.util.zip.GZIPInputStream
 
 fun RecordedRequest.parseBody(): String = InternalUtils.gunzip(this.body.clone().readByteArray())!!
+
+/** Content-Typeに応じてbodyを復元する. */
+fun RecordedRequest.parseJSONBody(): JSONObject {
+    if (getHeader("Content-Type") != "application/msgpack") return JSONObject(parseBody())
+    val bytes = GZIPInputStream(this.body.clone().inputStream()).use { it.readBytes() }
+    return InternalUtils.unpackMessage(bytes) as JSONObject
+}
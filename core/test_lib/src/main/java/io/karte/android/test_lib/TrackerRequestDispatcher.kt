@@ -53,7 +53,7 @@ open class TrackerRequestDispatcher(private val onTrack: ((RecordedRequest) -> M
 
     fun ingestRequests(): List<RecordedRequest> = recordedRequests.filter { it.path?.contains("/ingest") == true }
 
-    fun trackedEvents(): List<JSONObject> = trackedRequests().map { JSONObject(it.parseBody()) }
+    fun trackedEvents(): List<JSONObject> = trackedRequests().map { it.parseJSONBody() }
         .flatMap { it.getJSONArray("events").toList() }
 
     fun clearHistory() {
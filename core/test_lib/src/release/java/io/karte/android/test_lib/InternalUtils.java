@@ -15,10 +15,27 @@
 //
 package io.karte.android.test_lib;
 
+import android.content.Context;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import io.karte.android.KarteApp;
 import io.karte.android.core.optout.OptOutConfigKt;
+import io.karte.android.tracking.Event;
+import io.karte.android.tracking.EventValidator;
+import io.karte.android.tracking.client.TrackRequest;
 import io.karte.android.tracking.queue.DispatcherKt;
+import io.karte.android.tracking.queue.EventRecord;
 import io.karte.android.utilities.GzipUtilKt;
+import io.karte.android.utilities.MessagePack;
+import io.karte.android.utilities.datastore.DataStore;
+import io.karte.android.utilities.datastore.RelationalOperator;
+
+import kotlin.Triple;
 
 public class InternalUtils {
     // KarteApp
@@ -36,6 +53,66 @@ public class InternalUtils {
         return GzipUtilKt.gunzip(bytes);
     }
 
+    public static byte[] gzip(String string) {
+        return GzipUtilKt.gzip(string);
+    }
+
+    public static Object unpackMessage(byte[] bytes) throws IOException {
+        return MessagePack.INSTANCE.unpack(bytes);
+    }
+
+    // Tracking
+    public static List<String> invalidMessages(Event event) {
+        return EventValidator.INSTANCE.getInvalidMessages$core_release(event);
+    }
+
+    public static void writeTrackBody(TrackRequest request, OutputStream outputStream) throws IOException {
+        request.writeBody$core_release(outputStream);
+    }
+
+    // DataStore
+    public static void setupEventStore(Context context) {
+        DataStore.Companion.setup(context, EventRecord.EventContract.INSTANCE);
+    }
+
+    public static void teardownEventStore() {
+        DataStore.Companion.teardown$core_release();
+    }
+
+    public static long putEvent(String visitorId, String originalPvId, String pvId, Event event) {
+        return DataStore.Companion.put(new EventRecord(visitorId, originalPvId, pvId, event, System.currentTimeMillis()));
+    }
+
+    public static void putAndDeleteEvent(String visitorId, String originalPvId, String pvId, Event event) {
+        EventRecord record = new EventRecord(visitorId, originalPvId, pvId, event, System.currentTimeMillis());
+        DataStore.Companion.put(record);
+        DataStore.Companion.delete(record);
+    }
+
+    public static List<Event> readEvents() {
+        List<EventRecord> records = DataStore.Companion.read(
+            EventRecord.EventContract.INSTANCE, Collections.emptyList(), null, null);
+        List<Event> events = new ArrayList<>(records.size());
+        for (EventRecord record : records) {
+            events.add(record.getEvent());
+        }
+        return events;
+    }
+
+    public static int countRequestingEvents() {
+        return DataStore.Companion.read(
+            EventRecord.EventContract.INSTANCE,
+            Collections.singletonList(new Triple<>(
+                EventRecord.EventContract.STATE,
+                RelationalOperator.Equal,
+                String.valueOf(EventRecord.State.Requesting.ordinal()))),
+            null, null).size();
+    }
+
+    public static void deleteEvents(List<Long> ids) {
+        DataStore.Companion.deleteAll(EventRecord.EventContract.INSTANCE, ids);
+    }
+
     // Optout
     public static String prefOptOutKey = OptOutConfigKt.PREF_KEY_OPT_OUT;
 }
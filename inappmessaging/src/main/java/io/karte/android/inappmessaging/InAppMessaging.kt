@@ -268,7 +268,7 @@ class InAppMessaging :
     internal fun generateOverlayURL(): String = "$overlayBaseUrl/v0/native/overlay" +
         "?app_key=${app.appKey}" +
         "&_k_vid=${KarteApp.visitorId}" +
-        "&_k_app_prof=${app.appInfo?.json}" +
+        "&_k_app_prof=${app.appInfo?.snapshot?.text}" +
         "&location=${app.config.dataLocation}"
 
     private fun clearWebViewCookies() {
@@ -21,6 +21,7 @@ import io.karte.android.inappmessaging.internal.MessageModel
 import io.karte.android.test_lib.createControlGroupMessage
 import io.karte.android.test_lib.createMessage
 import io.karte.android.tracking.AppInfo
+import io.karte.android.tracking.AppInfoSnapshot
 import io.karte.android.tracking.CustomEventName
 import io.karte.android.tracking.Event
 import io.karte.android.tracking.client.TrackRequest
@@ -65,7 +66,10 @@ internal fun mockKarteApp(): KarteApp {
     every { app.appInfo } returns appInfo
     every { app.config } returns config
     every { app.appKey } returns "appkey"
-    every { appInfo.json } returns JSONObject().put("version_name", 1)
+    val snapshot = mockk<AppInfoSnapshot>()
+    every { appInfo.snapshot } returns snapshot
+    every { snapshot.json } returns JSONObject().put("version_name", 1)
+    every { snapshot.text } returns JSONObject().put("version_name", 1).toString()
     every { config.baseUrl } returns "https://myurl:8080"
     return app
 }
@@ -52,6 +52,7 @@ dependencyResolutionManagement {
 
 include(":core", ":inappmessaging", ":notifications", ":variables", ":visualtracking", ":inbox", ":inappframe", ":debugger")
 include(":sample_java", ":sample_kotlin", ":test_lib")
+include(":benchmark")
 rootProject.name = "Karte"
 includeBuild("gradle-plugin") {
     dependencySubstitution {
@@ -63,7 +63,7 @@ class VisualTracking :
     override fun configure(app: KarteApp) {
         this.app = app
         self = this
-        app.appInfo?.let { traceBuilder = TraceBuilder(it.json) }
+        traceBuilder = TraceBuilder { app.appInfo?.snapshot?.json }
         pairingManager = PairingManager(app)
         app.application.registerActivityLifecycleCallbacks(lifecycleHook)
         app.register(this)
@@ -74,7 +74,7 @@ internal class PairingManager(private val app: KarteApp) : ActivityLifecycleCall
 
                 val json = JSONObject()
                     .put("os", "android")
-                    .put("app_info", app.appInfo?.json)
+                    .put("app_info", app.appInfo?.snapshot?.json)
                     .put("visitor_id", KarteApp.visitorId)
 
                 val request = JSONRequest(url, METHOD_POST).apply { body = json.toString() }
@@ -26,14 +26,15 @@ import io.karte.android.visualtracking.internal.getTargetText
 import org.json.JSONException
 import org.json.JSONObject
 
+/** [appInfo]はtraceの生成ごとに呼び出し、その時点のアプリケーション情報を付与する. */
 @UiThread
-internal class TraceBuilder(private val appInfo: JSONObject) {
+internal class TraceBuilder(private val appInfo: () -> JSONObject?) {
 
     @Throws(JSONException::class)
     fun buildTrace(actionName: String, args: Array<Any>): Trace {
         val jsonObject = JSONObject()
             .put("action", actionName)
-            .put("app_info", appInfo)
+            .putOpt("app_info", appInfo())
         val view = getView(actionName, args) ?: return Trace(null, jsonObject)
 
         jsonObject.put("view", view.javaClass.name)
@@ -49,7 +50,7 @@ internal class TraceBuilder(private val appInfo: JSONObject) {
     @Throws(JSONException::class)
     fun buildTrace(actionName: String, activity: Activity): Trace {
         val values = JSONObject()
-            .put("app_info", this.appInfo)
+            .putOpt("app_info", appInfo())
             .put("action", actionName)
             .put("activity", activity.javaClass.name)
 
@@ -59,7 +60,7 @@ internal class TraceBuilder(private val appInfo: JSONObject) {
     @Throws(JSONException::class)
     fun buildTrace(action: Action): Trace {
         val values = JSONObject()
-            .put("app_info", this.appInfo)
+            .putOpt("app_info", appInfo())
             .put("action", action.action)
             .putOpt("target_text", action.targetText)
             .putOpt("action_id", action.actionId)
@@ -30,6 +30,7 @@ import io.karte.android.test_lib.parseBody
 import io.karte.android.test_lib.setupKarteApp
 import io.karte.android.test_lib.tearDownKarteApp
 import io.karte.android.visualtracking.BasicAction
+import io.karte.android.visualtracking.BuildConfig
 import io.karte.android.visualtracking.ImageProvider
 import io.karte.android.visualtracking.PairingActivity
 import io.karte.android.visualtracking.VisualTracking
@@ -123,6 +124,17 @@ class PairingTest : RobolectricTestCase() {
         assertThat(body).doesNotContain("Content-Type: application/octet-stream")
     }
 
+    @Test
+    fun traceにはSDKの初期化完了後のmodule_infoが含まれる() {
+        Robolectric.buildActivity(PairingActivity::class.java, pairingActivityIntent).create()
+        VisualTracking.handle(BasicAction("touch", "favorite_tapped", "item_detail_screen_favorite_1"))
+        val req = dispatcher.autoTrackRequests().find { it.path?.contains("/trace") == true }
+        val body = req?.body?.readUtf8()
+
+        // module_infoは各ライブラリのconfigureの後に更新される
+        assertThat(body).contains("\"visualtracking\":\"${BuildConfig.LIB_VERSION}\"")
+    }
+
     @Test
     fun 手動でビジュアルトラッキングを処理したときに画像付きのtraceが送信される() {
         Robolectric.buildActivity(PairingActivity::class.java, pairingActivityIntent).create()
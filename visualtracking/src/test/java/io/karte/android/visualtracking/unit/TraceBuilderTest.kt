@@ -34,8 +34,15 @@ import org.junit.Test
 import org.robolectric.Robolectric
 
 class TraceBuilderTest : RobolectricTestCase() {
-    private val appInfo = JSONObject().put("version_name", "1.5.5")
-    private val traceBuilder = TraceBuilder(appInfo)
+    private var appInfo = JSONObject().put("version_name", "1.5.5")
+    private val traceBuilder = TraceBuilder { appInfo }
+
+    @Test
+    fun trace生成時点のappInfoが付与される() {
+        appInfo = JSONObject().put("version_name", "1.5.6")
+        val values = traceBuilder.buildTrace(BasicAction("touch", "actionId", "target_text")).values
+        assertThatJson(values).node("app_info.version_name").isString.isEqualTo("1.5.6")
+    }
 
     @Test
     fun viewを含むaction() {